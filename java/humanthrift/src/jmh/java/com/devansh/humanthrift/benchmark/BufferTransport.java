@@ -0,0 +1,59 @@
+package com.devansh.humanthrift.benchmark;
+
+import org.apache.thrift.transport.TTransport;
+
+import java.util.Arrays;
+
+/**
+ * An in memory transport that can be cleared and written again without allocating, and read back
+ * what was written to it.
+ */
+class BufferTransport extends TTransport {
+
+    private byte[] buf = new byte[1024];
+    private int length;
+    private int readPosition;
+
+    void clear() {
+        length = 0;
+        readPosition = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int amt = Math.min(len, length - readPosition);
+        System.arraycopy(buf, readPosition, b, off, amt);
+        readPosition += amt;
+        return amt;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (length + len > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + len));
+        }
+        System.arraycopy(b, off, buf, length, len);
+        length += len;
+    }
+}
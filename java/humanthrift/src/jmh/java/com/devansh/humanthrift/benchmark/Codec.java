@@ -0,0 +1,55 @@
+package com.devansh.humanthrift.benchmark;
+
+import com.devansh.humanthrift.CompiledSchema;
+import com.devansh.humanthrift.HumanReadableJsonHelpers;
+import com.devansh.humanthrift.HumanReadableJsonProtocol;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransport;
+import org.json.JSONArray;
+
+/**
+ * The protocols that are compared against each other.
+ */
+public enum Codec {
+    HUMAN,
+    HUMAN_STREAMING,
+    BINARY,
+    COMPACT,
+    JSON;
+
+    // Relative to the project directory, which is where the jmh task runs
+    static final JSONArray METADATA = HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json");
+    static final CompiledSchema SCHEMA = CompiledSchema.compile(METADATA);
+    static final String SERVICE = "AuthenticationService";
+    static final String LOGIN_RESULT = "auth.LoginResult";
+
+    TProtocolFactory factory() {
+        switch (this) {
+            case HUMAN:
+                return new HumanReadableJsonProtocol.Factory(SCHEMA, SERVICE);
+            case HUMAN_STREAMING:
+                return new HumanReadableJsonProtocol.Factory(SCHEMA, SERVICE).streaming(true);
+            case BINARY:
+                return new TBinaryProtocol.Factory();
+            case COMPACT:
+                return new TCompactProtocol.Factory();
+            default:
+                return new TJSONProtocol.Factory();
+        }
+    }
+
+    /**
+     * @return a protocol for reading or writing a LoginResult on its own. For the human protocol
+     * this is the same as {@link HumanReadableJsonProtocol#forStruct}, which can only be used once.
+     */
+    TProtocol structProtocol(TProtocolFactory factory, TTransport transport) {
+        if (factory instanceof HumanReadableJsonProtocol.Factory) {
+            return ((HumanReadableJsonProtocol.Factory) factory).getStructProtocol(transport, LOGIN_RESULT);
+        }
+        return factory.getProtocol(transport);
+    }
+}
@@ -0,0 +1,96 @@
+package com.devansh.humanthrift.benchmark;
+
+import com.devansh.humanthrift.MultiThriftProtocol;
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole login call going through {@link MultiThriftProtocol}, from the byte that picks the
+ * protocol to the response. {@link #process()} creates new protocols for every call like a server
+ * that gets one call per connection, {@link #processOnConnection()} reuses them like a long lived
+ * connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    // Binary, Compact, Thrift JSON and Human JSON
+    @Param({"1", "2", "3", "4"})
+    public String protocolType;
+
+    @Param({"SMALL", "LARGE"})
+    public Payload payload;
+
+    private final TMemoryInputTransport input = new TMemoryInputTransport();
+    private final BufferTransport output = new BufferTransport();
+    private MultiThriftProtocol.Factory factory;
+    private AuthenticationService.Processor<AuthenticationService.Iface> processor;
+    private MultiThriftProtocol connectionIn;
+    private MultiThriftProtocol connectionOut;
+    private byte[] request;
+
+    @Setup
+    public void setUp() throws TException {
+        factory = new MultiThriftProtocol.Factory(Codec.METADATA, Codec.SERVICE);
+        final LoginResult loginResult = payload.loginResult;
+        processor = new AuthenticationService.Processor<AuthenticationService.Iface>(
+                new AuthenticationService.Iface() {
+                    @Override
+                    public LoginResult login(String email, String password) {
+                        return loginResult;
+                    }
+                });
+
+        BufferTransport buffer = new BufferTransport();
+        MultiThriftProtocol protocol = (MultiThriftProtocol) factory.getProtocol(buffer);
+        protocol.setProtocolType(protocolType);
+        protocol.writeMessageBegin(new TMessage("login", TMessageType.CALL, 0));
+        payload.args.write(protocol);
+        protocol.writeMessageEnd();
+        request = buffer.toByteArray();
+
+        connectionIn = (MultiThriftProtocol) factory.getProtocol(input);
+        connectionOut = (MultiThriftProtocol) factory.getProtocol(output);
+    }
+
+    @Benchmark
+    public int process() throws TException {
+        input.reset(request);
+        output.clear();
+        MultiThriftProtocol in = (MultiThriftProtocol) factory.getProtocol(input);
+        MultiThriftProtocol out = (MultiThriftProtocol) factory.getProtocol(output);
+        out.setProtocolType(in.readProtocolTypeFromTransport());
+        processor.process(in, out);
+        return output.length();
+    }
+
+    @Benchmark
+    public int processOnConnection() throws TException {
+        input.reset(request);
+        output.clear();
+        connectionOut.setProtocolType(connectionIn.readProtocolTypeFromTransport());
+        processor.process(connectionIn, connectionOut);
+        return output.length();
+    }
+}
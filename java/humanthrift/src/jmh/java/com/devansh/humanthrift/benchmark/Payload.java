@@ -0,0 +1,52 @@
+package com.devansh.humanthrift.benchmark;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import com.devansh.humanthrift.generated.User;
+
+/**
+ * The messages that are benchmarked, all built from the structs in auth.thrift. That schema has
+ * no containers, so the bigger payloads get their size from longer strings, which also have
+ * escapes and chars outside of ASCII in them.
+ */
+public enum Payload {
+    /**
+     * The login call and reply from {@link com.devansh.humanthrift.Main}
+     */
+    SMALL(0),
+    /**
+     * About 1KB per message
+     */
+    MEDIUM(16),
+    /**
+     * About 32KB per message
+     */
+    LARGE(512);
+
+    private static final String TEXT = "Devansh Gupta \"é\" 😀\n";
+
+    final AuthenticationService.login_args args;
+    final AuthenticationService.login_result result;
+    final LoginResult loginResult;
+
+    Payload(int repeat) {
+        String email = repeat(TEXT, repeat) + "devansh@devash.com";
+        loginResult = new LoginResult()
+                .setAuthToken(repeat("ABCDE", repeat * 4 + 1))
+                .setCurrentUser(new User()
+                        .setId("1")
+                        .setEmail(email)
+                        .setName(repeat(TEXT, repeat) + "Devansh Gupta")
+                        .setValidatedAt(1514764800L));
+        args = new AuthenticationService.login_args(email, repeat(TEXT, repeat) + "p@$$w0rd");
+        result = new AuthenticationService.login_result().setSuccess(loginResult);
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
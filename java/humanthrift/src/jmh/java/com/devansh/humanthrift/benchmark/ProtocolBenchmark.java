@@ -0,0 +1,92 @@
+package com.devansh.humanthrift.benchmark;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a request, encoding a response and a struct round trip for every protocol and payload.
+ * The protocols are created once and reused, the way a server reuses them for a connection, except
+ * for the struct round trip where a new protocol per struct is how the human protocol is used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    @Param
+    public Codec codec;
+
+    @Param
+    public Payload payload;
+
+    private final TMemoryInputTransport input = new TMemoryInputTransport();
+    private final BufferTransport output = new BufferTransport();
+    private TProtocolFactory factory;
+    private TProtocol inputProtocol;
+    private TProtocol outputProtocol;
+    private byte[] request;
+
+    @Setup
+    public void setUp() throws TException {
+        factory = codec.factory();
+        inputProtocol = factory.getProtocol(input);
+        outputProtocol = factory.getProtocol(output);
+
+        BufferTransport buffer = new BufferTransport();
+        TProtocol protocol = factory.getProtocol(buffer);
+        protocol.writeMessageBegin(new TMessage("login", TMessageType.CALL, 0));
+        payload.args.write(protocol);
+        protocol.writeMessageEnd();
+        request = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public AuthenticationService.login_args decodeRequest() throws TException {
+        input.reset(request);
+        inputProtocol.readMessageBegin();
+        AuthenticationService.login_args args = new AuthenticationService.login_args();
+        args.read(inputProtocol);
+        inputProtocol.readMessageEnd();
+        return args;
+    }
+
+    @Benchmark
+    public int encodeResponse() throws TException {
+        output.clear();
+        outputProtocol.writeMessageBegin(new TMessage("login", TMessageType.REPLY, 0));
+        payload.result.write(outputProtocol);
+        outputProtocol.writeMessageEnd();
+        return output.length();
+    }
+
+    @Benchmark
+    public LoginResult structRoundTrip() throws TException {
+        output.clear();
+        payload.loginResult.write(codec.structProtocol(factory, output));
+        LoginResult copy = new LoginResult();
+        copy.read(codec.structProtocol(factory, output));
+        return copy;
+    }
+}
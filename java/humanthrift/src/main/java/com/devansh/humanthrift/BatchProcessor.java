@@ -0,0 +1,175 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Lets a client send many calls in one message, as a JSON array of the usual messages:
+ * <pre>
+ * [{"method":"login","arguments":{...}}, {"method":"login","arguments":{...}}]
+ * </pre>
+ * Every call is handed to the processor on its own and the responses are written as a JSON array
+ * in the same order. A call that fails gets an "exception" response of its own, with the method
+ * and id of the call, and does not affect the others. A message that is not an array is processed as usual.
+ * <p>
+ * Use it in place of the processor, with protocols from a {@link HumanReadableJsonProtocol.Factory}.
+ */
+public class BatchProcessor implements TProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchProcessor.class);
+
+    private static final byte[][] ENVELOPE_KEYS = JsonReader.names("method", "id");
+    private static final int METHOD = 0;
+    private static final int ID = 1;
+
+    private final TProcessor processor;
+    private final HumanReadableJsonProtocol.Factory factory;
+    private final Executor executor;
+
+    /**
+     * Runs the calls of a batch one after the other.
+     *
+     * @param factory the factory the protocols passed to {@link #process} come from
+     */
+    public BatchProcessor(TProcessor processor, HumanReadableJsonProtocol.Factory factory) {
+        this(processor, factory, null);
+    }
+
+    /**
+     * Runs the calls of a batch at the same time on the executor, so the processor and its
+     * handler must be thread safe.
+     *
+     * @param executor can be null to run the calls one after the other
+     */
+    public BatchProcessor(TProcessor processor, HumanReadableJsonProtocol.Factory factory, Executor executor) {
+        this.processor = processor;
+        this.factory = factory.unframed();
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        if (!(in instanceof HumanReadableJsonProtocol) || !(out instanceof HumanReadableJsonProtocol)) {
+            return processor.process(in, out);
+        }
+
+        TMemoryInputTransport[] calls = ((HumanReadableJsonProtocol) in).readBatch();
+        if (calls == null) {
+            return processor.process(in, out);
+        }
+
+        TMemoryBuffer[] responses = new TMemoryBuffer[calls.length];
+        if (executor == null || calls.length == 1) {
+            for (int i = 0; i < calls.length; i++) {
+                responses[i] = call(calls[i]);
+            }
+        } else {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[calls.length];
+            for (int i = 0; i < calls.length; i++) {
+                final int index = i;
+                try {
+                    futures[i] = CompletableFuture.runAsync(() -> responses[index] = call(calls[index]), executor);
+                } catch (RejectedExecutionException e) {
+                    responses[i] = call(calls[i]);
+                }
+            }
+            for (CompletableFuture<?> future : futures) {
+                if (future != null) {
+                    // call never throws, every failure is turned into a response
+                    future.join();
+                }
+            }
+        }
+
+        ((HumanReadableJsonProtocol) out).writeBatch(responses);
+        out.getTransport().flush();
+        return true;
+    }
+
+    private TMemoryBuffer call(TMemoryInputTransport call) {
+        // Where the call is, before the processor reads it
+        byte[] buf = call.getBuffer();
+        int offset = call.getBufferPosition();
+        int length = call.getBytesRemainingInBuffer();
+
+        TMemoryBuffer response = new TMemoryBuffer(256);
+        try {
+            processor.process(factory.getProtocol(call), factory.getProtocol(response));
+            return response;
+        } catch (Exception e) {
+            log.debug("Call in batch failed", e);
+            return failure(envelope(buf, offset, length), e);
+        }
+    }
+
+    /**
+     * Reads the method and id of a call again, for the response to a call that failed, so the
+     * client can tell which one it was. Whatever can not be read is left empty.
+     */
+    private static TMessage envelope(byte[] buf, int offset, int length) {
+        JsonReader reader = new JsonReader();
+        reader.reset(buf, offset, length);
+        String name = "";
+        int id = 0;
+        try {
+            reader.expect('{');
+            if (!reader.consume('}')) {
+                do {
+                    switch (reader.readField(ENVELOPE_KEYS)) {
+                        case METHOD:
+                            name = reader.readString();
+                            break;
+                        case ID:
+                            id = reader.readInt();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                } while (reader.consume(','));
+            }
+        } catch (TProtocolException e) {
+            // The call is malformed, what was read so far is all there is
+        }
+        return new TMessage(name, TMessageType.EXCEPTION, id);
+    }
+
+    private TMemoryBuffer failure(TMessage call, Exception e) {
+        // What was written before the failure is thrown away
+        TMemoryBuffer response = new TMemoryBuffer(128);
+        int type = TApplicationException.INTERNAL_ERROR;
+        Throwable cause = e;
+        while (true) {
+            if (cause instanceof TProtocolException) {
+                type = TApplicationException.PROTOCOL_ERROR;
+            }
+            if (cause.getCause() == null) {
+                break;
+            }
+            cause = cause.getCause();
+        }
+        String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        try {
+            TProtocol protocol = factory.getProtocol(response);
+            protocol.writeMessageBegin(call);
+            new TApplicationException(type, message).write(protocol);
+            protocol.writeMessageEnd();
+        } catch (TException writeFailure) {
+            log.error("Unable to write the failure of a call in a batch", writeFailure);
+            return null;
+        }
+        return response;
+    }
+}
@@ -0,0 +1,505 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An indexed view of the Thrift JSON metadata. It is built once from the same {@link JSONArray}
+ * that is handed to {@link HumanReadableJsonProtocol.Factory} and after that every lookup of a
+ * service, method, struct or field is a hash lookup instead of a scan over the metadata.
+ * <p>
+ * Type ids ("i32", "struct", ...) are resolved to their {@link TType} when the schema is compiled
+ * and struct references ("package.Struct") are linked to the struct they point to.
+ */
+public class CompiledSchema implements SchemaSource {
+
+    private static final String SERVICES_KEY = "services";
+    private static final String SUCCESS_KEY = "success";
+    private static final String NAME_KEY = "name";
+    private static final String ARGUMENTS_KEY = "arguments";
+    private static final String EXCEPTIONS_KEY = "exceptions";
+    private static final String FUNCTIONS_KEY = "functions";
+    private static final String KEY_KEY = "key";
+    private static final String ONEWAY_KEY = "oneway";
+    private static final String FIELDS_KEY = "fields";
+    private static final String STRUCTS_KEY = "structs";
+    private static final String CLASS_KEY = "class";
+    private static final String TYPE_ID_KEY = "typeId";
+    private static final String TYPE_KEY = "type";
+    private static final String KEY_TYPE_ID_KEY = "keyTypeId";
+    private static final String KEY_TYPE_KEY = "keyType";
+    private static final String VALUE_TYPE_ID_KEY = "valueTypeId";
+    private static final String VALUE_TYPE_KEY = "valueType";
+    private static final String ELEM_TYPE_ID_KEY = "elemTypeId";
+    private static final String ELEM_TYPE_KEY = "elemType";
+    private static final String RETURN_TYPE_ID_KEY = "returnTypeId";
+    private static final String RETURN_TYPE_KEY = "returnType";
+
+    /**
+     * Marks a type id that is not known to the protocol. It is only an error if a message actually
+     * uses it, the same as it was when the metadata was read on every request.
+     */
+    static final byte UNKNOWN_TYPE = -1;
+    // Fields with larger keys, which are rare, are found without an index
+    private static final int MAX_INDEXED_KEY = 256;
+
+    static final class TypeInfo {
+        final String typeId;
+        final byte ttype;
+        final String className;
+        final TypeInfo keyType;
+        final TypeInfo valueType;
+        final TypeInfo elemType;
+        StructInfo struct;
+
+        TypeInfo(String typeId, String className, TypeInfo keyType, TypeInfo valueType, TypeInfo elemType) {
+            this.typeId = typeId;
+            this.ttype = toTType(typeId);
+            this.className = className;
+            this.keyType = keyType;
+            this.valueType = valueType;
+            this.elemType = elemType;
+        }
+
+        byte ttype() throws TProtocolException {
+            requireKnownType();
+            return ttype;
+        }
+
+        /**
+         * Fails for a type id that is not known to the protocol, once a message uses it.
+         */
+        void requireKnownType() throws TProtocolException {
+            if (ttype == UNKNOWN_TYPE) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA,
+                        new Exception("Unknown type identifier " + typeId));
+            }
+        }
+
+        StructInfo struct() throws TProtocolException {
+            if (struct == null) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA,
+                        new Exception("Unknown struct " + className));
+            }
+            return struct;
+        }
+    }
+
+    static final class FieldInfo {
+        final String name;
+        final short key;
+        final TypeInfo type;
+        final TField tField;
+        final byte[] keyToken;
+
+        FieldInfo(String name, short key, TypeInfo type) {
+            // Interned so looking up the names of the generated TFields, which are literals,
+            // finds the same instance
+            this.name = name.intern();
+            this.key = key;
+            this.type = type;
+            this.tField = new TField(this.name, type.ttype, key);
+            this.keyToken = TSimpleJSONProtocol.encodeKey(this.name);
+        }
+    }
+
+    static final class StructInfo {
+        final String name;
+        final FieldInfo[] fields;
+        // The names of the fields in the same order, for matching keys without making strings of them
+        final byte[][] names;
+        // The kind of JSON value each field takes, in the same order. See valueKind.
+        final byte[] kinds;
+        final Map<String, FieldInfo> fieldsByName;
+        // The fields by their key, for the keys below MAX_INDEXED_KEY
+        private final FieldInfo[] fieldsByKey;
+        // How often JsonCodecProcessor used the struct before it got a codec, and the codec
+        final AtomicInteger uses = new AtomicInteger();
+        volatile RuntimeJsonCodec codec;
+
+        StructInfo(String name, List<FieldInfo> fields) {
+            this.name = name;
+            this.fields = fields.toArray(new FieldInfo[fields.size()]);
+            this.names = new byte[this.fields.length][];
+            this.kinds = new byte[this.fields.length];
+            this.fieldsByName = new HashMap<>();
+            int maxKey = -1;
+            for (int i = 0; i < this.fields.length; i++) {
+                names[i] = this.fields[i].name.getBytes(StandardCharsets.UTF_8);
+                kinds[i] = valueKind(this.fields[i].type.ttype);
+                fieldsByName.put(this.fields[i].name, this.fields[i]);
+                if (this.fields[i].key < MAX_INDEXED_KEY) {
+                    maxKey = Math.max(maxKey, this.fields[i].key);
+                }
+            }
+            this.fieldsByKey = new FieldInfo[maxKey + 1];
+            for (FieldInfo field : this.fields) {
+                if (field.key >= 0 && field.key <= maxKey) {
+                    fieldsByKey[field.key] = field;
+                }
+            }
+        }
+
+        FieldInfo field(String name) {
+            return fieldsByName.get(name);
+        }
+
+        /**
+         * @return the field with the key, or null if there is none
+         */
+        FieldInfo field(short key) {
+            if (key >= 0 && key < fieldsByKey.length) {
+                return fieldsByKey[key];
+            }
+            for (FieldInfo field : fields) {
+                if (field.key == key) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class MethodInfo {
+        final String name;
+        final boolean oneway;
+        final StructInfo arguments;
+        final TypeInfo returnType;
+        final StructInfo exceptions;
+        final StructInfo result;
+        final byte[] nameToken;
+
+        MethodInfo(String name, boolean oneway, StructInfo arguments, TypeInfo returnType,
+                   StructInfo exceptions) {
+            this.name = name.intern();
+            this.nameToken = TSimpleJSONProtocol.encodeString(this.name);
+            this.oneway = oneway;
+            this.arguments = arguments;
+            this.returnType = returnType;
+            this.exceptions = exceptions;
+
+            // The result of a method is a struct with "success" (key 0) and one field per exception
+            List<FieldInfo> resultFields = new ArrayList<>(exceptions.fields.length + 1);
+            if (returnType.ttype != UNKNOWN_TYPE) {
+                resultFields.add(new FieldInfo(SUCCESS_KEY, (short) 0, returnType));
+            }
+            Collections.addAll(resultFields, exceptions.fields);
+            this.result = new StructInfo(name + "_result", resultFields);
+        }
+    }
+
+    static final class ServiceInfo {
+        final String name;
+        final Map<String, MethodInfo> methods = new HashMap<>();
+
+        ServiceInfo(String name) {
+            this.name = name;
+        }
+
+        MethodInfo method(String name) {
+            return methods.get(name);
+        }
+    }
+
+    private final Map<String, ServiceInfo> services;
+    private final Map<String, StructInfo> structs;
+    // The fields of TApplicationException, sent as "exception" in a message. Every schema has its
+    // own, like its other structs, so nothing kept on it is shared between schemas.
+    private final StructInfo applicationException = new StructInfo("TApplicationException", Arrays.asList(
+            new FieldInfo("message", (short) 1, new TypeInfo("string", null, null, null, null)),
+            new FieldInfo("type", (short) 2, new TypeInfo("i32", null, null, null, null))));
+    // The encoded names of every field and method, for writing them without encoding them again
+    private final Map<String, byte[]> keyTokens = new HashMap<>();
+    private final Map<String, byte[]> nameTokens = new HashMap<>();
+    // The service of every method name, or null for the names used by more than one service
+    private final Map<String, ServiceInfo> methodServices = new HashMap<>();
+
+    CompiledSchema(Map<String, ServiceInfo> services, Map<String, StructInfo> structs) {
+        this.services = Collections.unmodifiableMap(services);
+        this.structs = Collections.unmodifiableMap(structs);
+
+        addKeyTokens(applicationException);
+        for (StructInfo struct : structs.values()) {
+            addKeyTokens(struct);
+        }
+        for (ServiceInfo service : services.values()) {
+            for (MethodInfo method : service.methods.values()) {
+                nameTokens.putIfAbsent(method.name, method.nameToken);
+                methodServices.put(method.name, methodServices.containsKey(method.name) ? null : service);
+                addKeyTokens(method.arguments);
+                addKeyTokens(method.result);
+            }
+        }
+    }
+
+    private void addKeyTokens(StructInfo struct) {
+        for (FieldInfo field : struct.fields) {
+            keyTokens.putIfAbsent(field.name, field.keyToken);
+        }
+    }
+
+    /**
+     * Builds the index for all the programs in the metadata. This is the only place the JSON
+     * metadata is read, so do it once and share the result between protocols.
+     *
+     * @param metadata all the Thrift JSON files concatenated into a JSON Array
+     * @return the compiled schema
+     */
+    public static CompiledSchema compile(JSONArray metadata) throws JSONException {
+        Map<String, ServiceInfo> services = new HashMap<>();
+        Map<String, StructInfo> structs = new HashMap<>();
+        List<TypeInfo> types = new ArrayList<>();
+
+        for (int i = 0; i < metadata.length(); i++) {
+            JSONObject program = metadata.getJSONObject(i);
+            String programName = program.getString(NAME_KEY);
+
+            JSONArray structList = program.optJSONArray(STRUCTS_KEY);
+            if (structList != null) {
+                for (int j = 0; j < structList.length(); j++) {
+                    JSONObject struct = structList.getJSONObject(j);
+                    String name = programName + "." + struct.getString(NAME_KEY);
+                    if (!structs.containsKey(name)) {
+                        structs.put(name, compileStruct(name, struct.getJSONArray(FIELDS_KEY), types));
+                    }
+                }
+            }
+
+            JSONArray serviceList = program.optJSONArray(SERVICES_KEY);
+            if (serviceList != null) {
+                for (int j = 0; j < serviceList.length(); j++) {
+                    JSONObject svc = serviceList.getJSONObject(j);
+                    String name = svc.getString(NAME_KEY);
+                    if (name.startsWith(programName + ".")) {
+                        name = name.substring(programName.length() + 1);
+                    }
+
+                    ServiceInfo serviceInfo = services.get(name);
+                    if (serviceInfo == null) {
+                        serviceInfo = new ServiceInfo(name);
+                        services.put(name, serviceInfo);
+                    }
+
+                    JSONArray functions = svc.getJSONArray(FUNCTIONS_KEY);
+                    for (int k = 0; k < functions.length(); k++) {
+                        MethodInfo method = compileMethod(functions.getJSONObject(k), types);
+                        if (!serviceInfo.methods.containsKey(method.name)) {
+                            serviceInfo.methods.put(method.name, method);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (TypeInfo type : types) {
+            if (type.className != null) {
+                type.struct = structs.get(type.className);
+            }
+        }
+
+        return new CompiledSchema(services, structs);
+    }
+
+    private static StructInfo compileStruct(String name, JSONArray fieldList,
+                                            List<TypeInfo> types) throws JSONException {
+        List<FieldInfo> fields = new ArrayList<>(fieldList.length());
+        for (int i = 0; i < fieldList.length(); i++) {
+            JSONObject field = fieldList.getJSONObject(i);
+            fields.add(new FieldInfo(field.getString(NAME_KEY), (short) field.optInt(KEY_KEY, 0),
+                    compileType(field, TYPE_ID_KEY, TYPE_KEY, types)));
+        }
+        return new StructInfo(name, fields);
+    }
+
+    private static MethodInfo compileMethod(JSONObject function,
+                                            List<TypeInfo> types) throws JSONException {
+        String name = function.getString(NAME_KEY);
+        return new MethodInfo(name,
+                function.optBoolean(ONEWAY_KEY, false),
+                compileStruct(name + "_args", function.getJSONArray(ARGUMENTS_KEY), types),
+                compileType(function, RETURN_TYPE_ID_KEY, RETURN_TYPE_KEY, types),
+                compileStruct(name + "_exceptions", function.getJSONArray(EXCEPTIONS_KEY), types));
+    }
+
+    private static TypeInfo compileType(JSONObject info, String typeIdKey, String typeKey,
+                                        List<TypeInfo> types) throws JSONException {
+        String typeId = info.getString(typeIdKey);
+        JSONObject type = info.optJSONObject(typeKey);
+
+        TypeInfo typeInfo;
+        if (type == null) {
+            typeInfo = new TypeInfo(typeId, null, null, null, null);
+        } else {
+            typeInfo = new TypeInfo(typeId,
+                    type.optString(CLASS_KEY, null),
+                    type.has(KEY_TYPE_ID_KEY) ? compileType(type, KEY_TYPE_ID_KEY, KEY_TYPE_KEY, types) : null,
+                    type.has(VALUE_TYPE_ID_KEY) ? compileType(type, VALUE_TYPE_ID_KEY, VALUE_TYPE_KEY, types) : null,
+                    type.has(ELEM_TYPE_ID_KEY) ? compileType(type, ELEM_TYPE_ID_KEY, ELEM_TYPE_KEY, types) : null);
+        }
+        types.add(typeInfo);
+        return typeInfo;
+    }
+
+    /**
+     * @return the byte a JSON value of the type starts with: '{', '[', '"', 't' for a bool, '0'
+     * for a number, or 0 for a type that is not known
+     */
+    static byte valueKind(byte ttype) {
+        switch (ttype) {
+            case TType.BOOL:
+                return 't';
+            case TType.BYTE:
+            case TType.I16:
+            case TType.I32:
+            case TType.I64:
+            case TType.DOUBLE:
+                return '0';
+            case TType.STRING:
+                return '"';
+            case TType.STRUCT:
+            case TType.MAP:
+                return '{';
+            case TType.SET:
+            case TType.LIST:
+                return '[';
+            default:
+                return 0;
+        }
+    }
+
+    static byte toTType(String typeId) {
+        switch (typeId) {
+            case "bool":
+                return TType.BOOL;
+            case "i8":
+                return TType.BYTE;
+            case "i16":
+                return TType.I16;
+            case "i32":
+                return TType.I32;
+            case "i64":
+                return TType.I64;
+            case "double":
+                return TType.DOUBLE;
+            case "string":
+                return TType.STRING;
+            case "struct":
+            case "union":
+            case "exception":
+                return TType.STRUCT;
+            case "map":
+                return TType.MAP;
+            case "set":
+                return TType.SET;
+            case "list":
+                return TType.LIST;
+            default:
+                return UNKNOWN_TYPE;
+        }
+    }
+
+    /**
+     * @return the name of a field as a key, quoted and followed by the colon, or null if no struct
+     * in the schema has a field with that name
+     */
+    byte[] keyToken(String name) {
+        return keyTokens.get(name);
+    }
+
+    /**
+     * @return the name of a method as a quoted string, or null if no service has a method with
+     * that name
+     */
+    byte[] nameToken(String name) {
+        return nameTokens.get(name);
+    }
+
+    /**
+     * A compiled schema never changes, so it is its own source.
+     */
+    @Override
+    public CompiledSchema current() {
+        return this;
+    }
+
+    Map<String, ServiceInfo> services() {
+        return services;
+    }
+
+    Map<String, StructInfo> structs() {
+        return structs;
+    }
+
+    ServiceInfo service(String name) {
+        return services.get(name);
+    }
+
+    /**
+     * Finds the service of a message sent to an endpoint that serves every service. That is the
+     * service named in the message, or the one before the ':' in "Service:method", or else the only
+     * service with a method by that name.
+     *
+     * @param service the "service" of the message, can be null
+     * @param method  the "method" of the message
+     * @return the service, or null if there is none
+     */
+    ServiceInfo serviceFor(String service, String method) throws TProtocolException {
+        if (service != null) {
+            return services.get(service);
+        }
+        int separator = method.indexOf(TMultiplexedProtocol.SEPARATOR);
+        if (separator >= 0) {
+            return services.get(method.substring(0, separator));
+        }
+        ServiceInfo owner = methodServices.get(method);
+        if (owner == null && methodServices.containsKey(method)) {
+            throw new TProtocolException(TProtocolException.INVALID_DATA,
+                    new Exception("More than one service has a method " + method + ", send the \"service\" too"));
+        }
+        return owner;
+    }
+
+    /**
+     * @return the name of the method without the "Service:" in front of it, if there is one
+     */
+    static String methodName(String name) {
+        int separator = name.indexOf(TMultiplexedProtocol.SEPARATOR);
+        return separator < 0 ? name : name.substring(separator + 1);
+    }
+
+    /**
+     * @return the name a {@link org.apache.thrift.TMultiplexedProcessor} expects, "Service:method"
+     */
+    static String multiplexedName(ServiceInfo service, String name) {
+        return name.indexOf(TMultiplexedProtocol.SEPARATOR) >= 0
+                ? name : service.name + TMultiplexedProtocol.SEPARATOR + name;
+    }
+
+    /**
+     * @return the fields of {@link org.apache.thrift.TApplicationException}
+     */
+    StructInfo applicationException() {
+        return applicationException;
+    }
+
+    /**
+     * @param name the name of the struct WITH the name of the package. So "package.Struct"
+     */
+    StructInfo struct(String name) {
+        return structs.get(name);
+    }
+}
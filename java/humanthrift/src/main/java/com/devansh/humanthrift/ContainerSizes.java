@@ -0,0 +1,64 @@
+package com.devansh.humanthrift;
+
+import java.util.Arrays;
+
+/**
+ * The sizes of an array or object and of every array and object inside it, counted in one pass by
+ * {@link JsonReader#count(ContainerSizes)} so the nested ones are not counted again when they are
+ * read. They are kept in the order the containers open, which is the order they are read in, so
+ * finding one moves forward over the ones that were skipped.
+ */
+final class ContainerSizes {
+
+    private int[] starts = new int[16];
+    private int[] sizes = new int[16];
+    private int count;
+    private int cursor;
+    // The containers that are open while counting
+    private int[] open = new int[16];
+    private int depth;
+
+    void clear() {
+        count = 0;
+        cursor = 0;
+        depth = 0;
+    }
+
+    /**
+     * @param start the position after the bracket that opens the container
+     * @return its size, or -1 if it was not counted
+     */
+    int find(int start) {
+        while (cursor < count && starts[cursor] < start) {
+            cursor++;
+        }
+        return cursor < count && starts[cursor] == start ? sizes[cursor++] : -1;
+    }
+
+    void push(int start) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+        }
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, depth * 2);
+        }
+        starts[count] = start;
+        sizes[count] = 0;
+        open[depth++] = count++;
+    }
+
+    /**
+     * Counts one more value in the innermost open container.
+     */
+    void increment() {
+        sizes[open[depth - 1]]++;
+    }
+
+    /**
+     * @return true if that closed the container the count started with
+     */
+    boolean pop() {
+        return --depth == 0;
+    }
+}
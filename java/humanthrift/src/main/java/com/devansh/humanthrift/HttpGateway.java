@@ -0,0 +1,777 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP/1.1 server for a {@link TProcessor}. The body of every POST is a message for the
+ * processor, read with a {@link HumanReadableJsonProtocol}, and the response is the body of the
+ * response. The body can be sent with a Content-Length or chunked, and connections are kept
+ * alive unless the client asks for them to be closed.
+ * <p>
+ * One thread reads and writes every connection with a selector and the processor runs on the
+ * workers. A connection is not read from while its request is being processed, so requests sent
+ * back to back on one connection are answered in order.
+ * <pre>
+ * HttpGateway gateway = new HttpGateway(new InetSocketAddress(8080), processor, factory).start();
+ * </pre>
+ */
+public class HttpGateway implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpGateway.class);
+
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    // Room left in front of every response for its status line and headers
+    private static final int RESPONSE_HEADER_SPACE = 128;
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte CHUNK_SIZE = 0;
+    private static final byte CHUNK_DATA = 1;
+    private static final byte CHUNK_DATA_END = 2;
+    private static final byte CHUNK_TRAILER = 3;
+
+    private final InetSocketAddress address;
+    private final TProcessor processor;
+    private final HumanReadableJsonProtocol.Factory factory;
+    private int workers = Runtime.getRuntime().availableProcessors() * 2;
+    private boolean virtualThreads;
+    private Executor executor;
+    private boolean ownsExecutor;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+
+    private BufferPool pool;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread selectorThread;
+    private volatile boolean running;
+    // Connections whose response is ready to be written by the selector thread
+    private final ConcurrentLinkedQueue<Connection> responded = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param factory the protocol for the messages, it should not be framed since every body
+     *                holds one message
+     */
+    public HttpGateway(InetSocketAddress address, TProcessor processor, HumanReadableJsonProtocol.Factory factory) {
+        this.address = address;
+        this.processor = processor;
+        this.factory = factory;
+    }
+
+    /**
+     * How many threads run the processor. Ignored if an {@link #executor(Executor)} is given.
+     */
+    public HttpGateway workers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * Runs every request on a virtual thread of its own instead of on the workers, so requests
+     * that block, on a database for example, do not use up the threads. The selector thread stays
+     * a platform thread. Use a {@link MethodLimitProcessor} to bound how many calls reach what they
+     * block on.
+     * <p>
+     * Virtual threads need Java 21, on older versions this logs a warning and uses the workers.
+     * Ignored if an {@link #executor(Executor)} is given.
+     */
+    public HttpGateway virtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * Runs the processor on the executor instead of on threads of the gateway. It is not shut
+     * down by {@link #close()}.
+     */
+    public HttpGateway executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * The size of the pooled buffers requests are read into and responses are written to. Larger
+     * ones are allocated when needed and not pooled.
+     */
+    public HttpGateway bufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * The most bytes a request can take, headers included. Larger requests get a 413 and their
+     * connection is closed.
+     */
+    public HttpGateway maxRequestSize(int maxRequestSize) {
+        this.maxRequestSize = maxRequestSize;
+        return this;
+    }
+
+    /**
+     * Binds to the address and starts serving, this returns once the gateway is listening.
+     */
+    public HttpGateway start() throws IOException {
+        pool = new BufferPool(bufferSize, MAX_POOLED_BUFFERS);
+        if (executor == null && virtualThreads) {
+            executor = newVirtualThreadExecutor();
+            ownsExecutor = executor != null;
+        }
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(workers, r -> {
+                Thread thread = new Thread(r, "http-gateway-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ownsExecutor = true;
+        }
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        selectorThread = new Thread(this::run, "http-gateway-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        return this;
+    }
+
+    /**
+     * @return the port the gateway listens on, useful when it was started on port 0
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. Requests that are being processed
+     * are not waited for.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null) {
+            try {
+                selectorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * Looked up by reflection so this still compiles and runs on Java 8.
+     *
+     * @return null if there are no virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            log.warn("Virtual threads need Java 21, running requests on the workers");
+        } catch (InvocationTargetException e) {
+            // Java 19 and 20 have them as a preview feature, which may not be enabled
+            log.warn("Unable to use virtual threads, running requests on the workers", e.getCause());
+        }
+        return null;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                Connection connection;
+                while ((connection = responded.poll()) != null) {
+                    connection.startWriting();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        log.debug("Closing connection", e);
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Gateway stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+
+    private final class Connection implements Runnable {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+
+        // The bytes read and not handled yet are in[0, inLength), a request always starts at 0
+        private byte[] in;
+        private int inLength;
+
+        // Where the request being read is at
+        private int headerScan;
+        private int headerEnd = -1;
+        private boolean keepAlive;
+        private boolean chunked;
+        private int contentLength;
+        private int bodyStart;
+        private int bodyEnd;
+        private int requestEnd = -1;
+        private int chunkScan;
+        private int chunkRemaining;
+        private byte chunkState;
+
+        private boolean processing;
+        private ResponseTransport response;
+        private ByteBuffer out;
+        private boolean closeAfterWrite;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (in == null) {
+                in = pool.acquire();
+            } else if (inLength == in.length) {
+                if (in.length >= maxRequestSize) {
+                    fail(413);
+                    return;
+                }
+                in = Arrays.copyOf(in, Math.min(in.length * 2, maxRequestSize));
+            }
+
+            int read = channel.read(ByteBuffer.wrap(in, inLength, in.length - inLength));
+            if (read < 0) {
+                close();
+                return;
+            }
+            inLength += read;
+            parse();
+        }
+
+        /**
+         * Handles the request at the start of the input once all of it has been read.
+         */
+        private void parse() throws IOException {
+            if (headerEnd < 0) {
+                headerEnd = findHeaderEnd();
+                if (headerEnd < 0) {
+                    if (inLength >= bufferSize) {
+                        fail(431);
+                    }
+                    return;
+                }
+                if (!parseHeader()) {
+                    return;
+                }
+            }
+
+            if (chunked) {
+                if (!decodeChunks()) {
+                    return;
+                }
+            } else {
+                if (inLength < bodyStart + contentLength) {
+                    return;
+                }
+                bodyEnd = bodyStart + contentLength;
+                requestEnd = bodyEnd;
+            }
+            dispatch();
+        }
+
+        private int findHeaderEnd() {
+            for (int i = Math.max(headerScan, 3); i < inLength; i++) {
+                if (in[i] == '\n' && in[i - 1] == '\r' && in[i - 2] == '\n' && in[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            headerScan = inLength;
+            return -1;
+        }
+
+        /**
+         * @return false if the request was turned down
+         */
+        private boolean parseHeader() throws IOException {
+            String[] lines = new String(in, 0, headerEnd - 4, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                fail(400);
+                return false;
+            }
+            if (!requestLine[0].equals("POST")) {
+                fail(405);
+                return false;
+            }
+
+            keepAlive = requestLine[2].equals("HTTP/1.1");
+            chunked = false;
+            contentLength = 0;
+            boolean expectContinue = false;
+            for (int i = 1; i < lines.length; i++) {
+                String line = lines[i];
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    fail(400);
+                    return false;
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    try {
+                        contentLength = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        contentLength = -1;
+                    }
+                    if (contentLength < 0) {
+                        fail(400);
+                        return false;
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.toLowerCase().endsWith("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    if (value.equalsIgnoreCase("close")) {
+                        keepAlive = false;
+                    } else if (value.equalsIgnoreCase("keep-alive")) {
+                        keepAlive = true;
+                    }
+                } else if (name.equalsIgnoreCase("Expect")) {
+                    expectContinue = value.equalsIgnoreCase("100-continue");
+                }
+            }
+
+            if (!chunked && headerEnd + (long) contentLength > maxRequestSize) {
+                fail(413);
+                return false;
+            }
+
+            bodyStart = headerEnd;
+            bodyEnd = headerEnd;
+            chunkScan = headerEnd;
+            chunkState = CHUNK_SIZE;
+            if (expectContinue && inLength == headerEnd) {
+                // Nothing is written while a request is read, so this fits in the socket buffer
+                channel.write(ByteBuffer.wrap(CONTINUE));
+            }
+            return true;
+        }
+
+        /**
+         * Decodes the chunks read so far in place, so the body ends up in one piece right after
+         * the header.
+         *
+         * @return true once the last chunk has been read
+         */
+        private boolean decodeChunks() throws IOException {
+            while (true) {
+                switch (chunkState) {
+                    case CHUNK_SIZE: {
+                        int eol = findLineEnd(chunkScan);
+                        if (eol < 0) {
+                            return false;
+                        }
+                        int size = 0;
+                        int i = chunkScan;
+                        for (; i < eol && in[i] != ';'; i++) {
+                            int digit = Character.digit(in[i], 16);
+                            if (digit < 0 || size > (maxRequestSize >> 4)) {
+                                fail(400);
+                                return false;
+                            }
+                            size = (size << 4) + digit;
+                        }
+                        if (i == chunkScan) {
+                            fail(400);
+                            return false;
+                        }
+                        chunkScan = eol + 2;
+                        chunkRemaining = size;
+                        chunkState = size == 0 ? CHUNK_TRAILER : CHUNK_DATA;
+                        break;
+                    }
+
+                    case CHUNK_DATA: {
+                        int available = Math.min(chunkRemaining, inLength - chunkScan);
+                        if (available == 0) {
+                            return false;
+                        }
+                        System.arraycopy(in, chunkScan, in, bodyEnd, available);
+                        bodyEnd += available;
+                        chunkScan += available;
+                        chunkRemaining -= available;
+                        if (chunkRemaining == 0) {
+                            chunkState = CHUNK_DATA_END;
+                        }
+                        break;
+                    }
+
+                    case CHUNK_DATA_END:
+                        if (inLength - chunkScan < 2) {
+                            return false;
+                        }
+                        if (in[chunkScan] != '\r' || in[chunkScan + 1] != '\n') {
+                            fail(400);
+                            return false;
+                        }
+                        chunkScan += 2;
+                        chunkState = CHUNK_SIZE;
+                        break;
+
+                    default: {
+                        int eol = findLineEnd(chunkScan);
+                        if (eol < 0) {
+                            return false;
+                        }
+                        boolean last = eol == chunkScan;
+                        chunkScan = eol + 2;
+                        if (last) {
+                            requestEnd = chunkScan;
+                            return true;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        private int findLineEnd(int from) {
+            for (int i = from; i + 1 < inLength; i++) {
+                if (in[i] == '\r' && in[i + 1] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void dispatch() throws IOException {
+            processing = true;
+            key.interestOps(0);
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                processing = false;
+                fail(503);
+            }
+        }
+
+        /**
+         * Runs the request on a worker.
+         */
+        @Override
+        public void run() {
+            ResponseTransport transport = new ResponseTransport(pool);
+            int status = 200;
+            try {
+                processor.process(
+                        factory.getProtocol(new TMemoryInputTransport(in, bodyStart, bodyEnd - bodyStart)),
+                        factory.getProtocol(transport));
+            } catch (TException e) {
+                log.debug("Unable to process request", e);
+                transport.reset();
+                transport.write(message(e).getBytes(StandardCharsets.UTF_8));
+                status = 400;
+            } catch (Throwable e) {
+                // Errors too, like a StackOverflowError on deeply nested JSON, so the client
+                // still gets a response
+                log.error("Unable to process request", e);
+                transport.reset();
+                status = 500;
+                keepAlive = false;
+            }
+
+            transport.finish(status, status == 400 ? "text/plain" : "application/json", keepAlive);
+            response = transport;
+            responded.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * @return what to tell the client about a request that could not be processed, which is
+         * only the message of a protocol error since anything else is internal
+         */
+        private String message(TException e) {
+            if (e instanceof TProtocolException) {
+                // The protocols put their message in a cause, so the class name is left out
+                String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                if (message != null) {
+                    return message;
+                }
+            }
+            return "Invalid request";
+        }
+
+        /**
+         * Called on the selector thread once the worker is done.
+         */
+        void startWriting() {
+            processing = false;
+            if (!key.isValid()) {
+                response.release();
+                response = null;
+                close();
+                return;
+            }
+            closeAfterWrite = !keepAlive;
+            out = response.buffer();
+            try {
+                write();
+            } catch (IOException e) {
+                log.debug("Closing connection", e);
+                close();
+            }
+        }
+
+        void write() throws IOException {
+            channel.write(out);
+            if (out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+
+            out = null;
+            if (response != null) {
+                response.release();
+                response = null;
+            }
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+            nextRequest();
+        }
+
+        /**
+         * Drops the request that was answered and goes on with whatever was read after it.
+         */
+        private void nextRequest() throws IOException {
+            int remaining = inLength - requestEnd;
+            if (remaining > 0) {
+                System.arraycopy(in, requestEnd, in, 0, remaining);
+            }
+            inLength = remaining;
+            headerScan = 0;
+            headerEnd = -1;
+            requestEnd = -1;
+
+            key.interestOps(SelectionKey.OP_READ);
+            if (inLength == 0) {
+                // An idle connection does not hold on to a buffer
+                pool.release(in);
+                in = null;
+            } else {
+                parse();
+            }
+        }
+
+        /**
+         * Answers with an error and closes the connection, since the rest of the request is
+         * not going to be read.
+         */
+        private void fail(int status) throws IOException {
+            log.debug("Turning down request with {}", status);
+            ResponseTransport transport = new ResponseTransport(pool);
+            transport.write(reason(status).getBytes(StandardCharsets.US_ASCII));
+            transport.finish(status, "text/plain", false);
+            response = transport;
+            closeAfterWrite = true;
+            out = response.buffer();
+            write();
+        }
+
+        void close() {
+            key.cancel();
+            closeQuietly(channel);
+            if (in != null && !processing) {
+                pool.release(in);
+                in = null;
+            }
+            if (response != null && !processing) {
+                response.release();
+                response = null;
+            }
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 400:
+                return "Bad Request";
+            case 405:
+                return "Method Not Allowed";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Internal Server Error";
+        }
+    }
+
+    /**
+     * Where a response is written, with room in front for its status line and headers so the
+     * whole response goes out in one write.
+     */
+    private static final class ResponseTransport extends TTransport {
+
+        private final BufferPool pool;
+        private byte[] buf;
+        private int length = RESPONSE_HEADER_SPACE;
+        private int start;
+
+        ResponseTransport(BufferPool pool) {
+            this.pool = pool;
+            this.buf = pool.acquire();
+        }
+
+        void reset() {
+            length = RESPONSE_HEADER_SPACE;
+        }
+
+        void finish(int status, String contentType, boolean keepAlive) {
+            int bodyLength = length - RESPONSE_HEADER_SPACE;
+            StringBuilder header = new StringBuilder(RESPONSE_HEADER_SPACE)
+                    .append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            if (bodyLength > 0) {
+                header.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            header.append("Content-Length: ").append(bodyLength).append("\r\n");
+            if (!keepAlive) {
+                header.append("Connection: close\r\n");
+            }
+            header.append("\r\n");
+
+            byte[] bytes = header.toString().getBytes(StandardCharsets.US_ASCII);
+            start = RESPONSE_HEADER_SPACE - bytes.length;
+            System.arraycopy(bytes, 0, buf, start, bytes.length);
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(buf, start, length - start);
+        }
+
+        void release() {
+            pool.release(buf);
+            buf = null;
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            if (length + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + len));
+            }
+            System.arraycopy(bytes, off, buf, length, len);
+            length += len;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws TTransportException {
+            throw new TTransportException(TTransportException.UNKNOWN, "Responses are write only");
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
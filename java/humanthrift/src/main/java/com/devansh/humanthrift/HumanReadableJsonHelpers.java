@@ -2,35 +2,109 @@ package com.devansh.humanthrift;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 public class HumanReadableJsonHelpers {
 
+    private static final Logger log = LoggerFactory.getLogger(HumanReadableJsonHelpers.class);
+
+    /**
+     * One of the Thrift JSON files, with how long it took to read and parse it.
+     */
+    public static class MetadataFile {
+        public final Path path;
+        public final JSONObject json;
+        public final long loadNanos;
+
+        MetadataFile(Path path, JSONObject json, long loadNanos) {
+            this.path = path;
+            this.json = json;
+            this.loadNanos = loadNanos;
+        }
+    }
+
+    /**
+     * Reads all the files in the directory into a JSON Array, sorted by file name. The files are
+     * parsed in parallel on the common fork join pool.
+     */
     public static JSONArray readAllFiles(String jsonMetadataPath) {
-        File[] jsonFiles = new File[0];
+        return readAllFiles(jsonMetadataPath, ForkJoinPool.commonPool());
+    }
+
+    public static JSONArray readAllFiles(String jsonMetadataPath, ForkJoinPool pool) {
+        JSONArray jsonArray = new JSONArray();
+        for (MetadataFile file : loadFiles(Paths.get(jsonMetadataPath), pool)) {
+            log.debug("Loaded {} in {} ms", file.path, file.loadNanos / 1e6);
+            jsonArray.put(file.json);
+        }
+        return jsonArray;
+    }
+
+    /**
+     * Reads and parses every file in the directory as a task on the pool.
+     *
+     * @return the files sorted by name, so the result is the same however the tasks ran
+     */
+    public static List<MetadataFile> loadFiles(Path jsonMetadataPath, ForkJoinPool pool) {
+        List<Path> paths;
         try {
-            jsonFiles = new File(jsonMetadataPath).listFiles();
-        } catch (Exception e) {
+            paths = listFiles(jsonMetadataPath);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        JSONArray jsonArray = new JSONArray();
 
-        for (File file : jsonFiles) {
-            try (BufferedReader br = new BufferedReader(new FileReader(file.toPath().toString()))) {
-                String s = "";
-                while (br.ready()) {
-                    s += br.readLine() + "\n";
+        List<ForkJoinTask<MetadataFile>> tasks = new ArrayList<>(paths.size());
+        for (final Path path : paths) {
+            tasks.add(pool.submit(() -> loadFile(path)));
+        }
+
+        List<MetadataFile> files = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<MetadataFile> task : tasks) {
+            // join rethrows whatever the task threw
+            files.add(task.join());
+        }
+        return files;
+    }
+
+    /**
+     * @return the files in the directory that are read as metadata, sorted by name. Directories
+     * and anything else that is not a regular file are left out.
+     */
+    static List<Path> listFiles(Path jsonMetadataPath) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(jsonMetadataPath)) {
+            for (Path path : dir) {
+                if (Files.isRegularFile(path)) {
+                    paths.add(path);
                 }
-                jsonArray.put(new JSONObject(s));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
         }
-        return jsonArray;
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static MetadataFile loadFile(Path path) {
+        long start = System.nanoTime();
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            JSONObject json = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+            return new MetadataFile(path, json, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
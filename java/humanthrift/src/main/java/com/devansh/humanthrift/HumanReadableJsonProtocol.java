@@ -1,85 +1,251 @@
 package com.devansh.humanthrift;
 
 
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import com.devansh.humanthrift.CompiledSchema.ServiceInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.*;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
 import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 
 public class HumanReadableJsonProtocol extends TProtocol {
 
     public static class Factory implements TProtocolFactory {
 
-        private JSONArray metadata;
-        private String service;
+        private final SchemaSource schema;
+        private final String service;
+        private boolean multiplexed;
+        private boolean streaming;
+        private boolean framed;
+        private boolean messageIds;
+        private int highWaterMark = TSimpleJSONProtocol.DEFAULT_HIGH_WATER_MARK;
+        private int maxDepth = TSimpleJSONProtocol.DEFAULT_MAX_DEPTH;
+        private SkippedFields skippedFields;
 
         public Factory(JSONArray metadata, String service) {
-            this.metadata = metadata;
+            this(CompiledSchema.compile(metadata), service);
+        }
+
+        /**
+         * Serves every service in the metadata, see {@link #Factory(SchemaSource)}.
+         */
+        public Factory(JSONArray metadata) {
+            this(CompiledSchema.compile(metadata));
+        }
+
+        /**
+         * Builds the schema from the classes generated for the service, without any JSON metadata.
+         * See {@link ReflectedSchema}.
+         *
+         * @param service the class generated for the service, like {@code AuthenticationService.class}
+         */
+        public Factory(Class<?> service) {
+            this(ReflectedSchema.of(service), service.getSimpleName());
+        }
+
+        /**
+         * @param schema a {@link CompiledSchema}, or a {@link ReloadableSchema} to pick up changes to
+         *               the metadata without restarting
+         */
+        public Factory(SchemaSource schema, String service) {
+            this.schema = schema;
             this.service = service;
         }
 
+        /**
+         * Serves every service in the schema from one endpoint, with a
+         * {@link org.apache.thrift.TMultiplexedProcessor} that has each service registered under
+         * its name. A request names its service with "service", or with a "Service:method"
+         * method, or not at all if only one service has a method by that name.
+         */
+        public Factory(SchemaSource schema) {
+            this(schema, null);
+            this.multiplexed = true;
+        }
+
+        /**
+         * When streaming, messages are decoded from their bytes as they are read by the processor
+         * instead of being parsed into a JSON tree first.
+         */
+        public Factory streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * When framed, messages can be sent back to back on the same transport. Every message is
+         * read up to the brace that closes it and every message written is followed by a newline.
+         * Without it a message is read until the transport has nothing more to give.
+         */
+        public Factory framed(boolean framed) {
+            this.framed = framed;
+            return this;
+        }
+
+        /**
+         * Writes the sequence id of every message as "id", so a client with more than one request
+         * in flight can tell which response is for which. An "id" is always read when it is there.
+         */
+        public Factory messageIds(boolean messageIds) {
+            this.messageIds = messageIds;
+            return this;
+        }
+
+        /**
+         * Responses are buffered and written to the transport in one go, unless they grow past
+         * this many bytes in which case they are written out in pieces of about this size.
+         */
+        public Factory highWaterMark(int highWaterMark) {
+            this.highWaterMark = highWaterMark;
+            return this;
+        }
+
+        /**
+         * How deep structs, lists and maps can be nested in a response. Writing anything deeper
+         * fails with a {@link TProtocolException#DEPTH_LIMIT}.
+         */
+        public Factory maxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Skips the keys that are not fields of their struct instead of failing the message, so
+         * clients can send fields the server does not know about yet. When streaming, the value of
+         * a skipped key is passed over byte by byte without being decoded. The skipped keys are
+         * counted in {@link #skippedFields()}.
+         */
+        public Factory skipUnknownFields(boolean skip) {
+            this.skippedFields = skip ? new SkippedFields() : null;
+            return this;
+        }
+
+        /**
+         * @return the counts of the keys skipped by {@link #skipUnknownFields(boolean)}, or null if
+         * unknown fields are not skipped
+         */
+        public SkippedFields skippedFields() {
+            return skippedFields;
+        }
+
         @Override
         public TProtocol getProtocol(TTransport transport) {
-            return HumanReadableJsonProtocol.forService(transport, metadata, service);
+            return new HumanReadableJsonProtocol(transport, this, service, null);
+        }
+
+        /**
+         * The same options without framing, for the calls of a batch which are already split up.
+         */
+        Factory unframed() {
+            Factory factory = new Factory(schema, service);
+            factory.multiplexed = multiplexed;
+            factory.streaming = streaming;
+            factory.messageIds = messageIds;
+            factory.highWaterMark = highWaterMark;
+            factory.maxDepth = maxDepth;
+            factory.skippedFields = skippedFields;
+            return factory;
+        }
+
+        /**
+         * Same as {@link HumanReadableJsonProtocol#forStruct(TTransport, CompiledSchema, String)} but
+         * with the options of this factory.
+         */
+        public HumanReadableJsonProtocol getStructProtocol(TTransport transport, String struct) {
+            return new HumanReadableJsonProtocol(transport, this, null, struct);
         }
     }
 
     private static final String METHOD_KEY = "method";
-    private static final String SERVICES_KEY = "services";
-    private static final String NAME_KEY = "name";
+    private static final String ID_KEY = "id";
+    private static final String SERVICE_KEY = "service";
     private static final String ARGUMENTS_REQUEST_KEY = "arguments";
-    private static final String ARGUMENTS_KEY = "arguments";
     private static final String RESULT_KEY = "result";
     private static final String SUCCESS_KEY = "success";
-    private static final String EXCEPTIONS_KEY = "exceptions";
     private static final String EXCEPTION_KEY = "exception";
-    private static final String FUNCTIONS_KEY = "functions";
-    private static final String KEY_KEY = "key";
-    private static final String ONEWAY_KEY = "oneway";
-    private static final String FIELDS_KEY = "fields";
-    private static final String STRUCTS_KEY = "structs";
     private static final String MESSAGE_KEY = "message";
-    private static final String CLASS_KEY = "class";
-    private static final String TYPE_ID_KEY = "typeId";
     private static final String TYPE_KEY = "type";
-    private static final String KEY_TYPE_ID_KEY = "keyTypeId";
-    private static final String KEY_TYPE_KEY = "keyType";
-    private static final String VALUE_TYPE_ID_KEY = "valueTypeId";
-    private static final String VALUE_TYPE_KEY = "valueType";
-    private static final String ELEM_TYPE_ID_KEY = "elemTypeId";
-    private static final String ELEM_TYPE_KEY = "elemType";
-    private static final String RETURN_TYPE_ID_KEY = "returnTypeId";
-    private static final String RETURN_TYPE_KEY = "returnType";
-
-    private final JSONArray metadata;
+
+    private static final byte[] METHOD_KEY_TOKEN = TSimpleJSONProtocol.encodeKey(METHOD_KEY);
+    private static final byte[] ID_KEY_TOKEN = TSimpleJSONProtocol.encodeKey(ID_KEY);
+    private static final byte[] ARGUMENTS_KEY_TOKEN = TSimpleJSONProtocol.encodeKey(ARGUMENTS_REQUEST_KEY);
+    private static final byte[] RESULT_KEY_TOKEN = TSimpleJSONProtocol.encodeKey(RESULT_KEY);
+    private static final byte[] EXCEPTION_KEY_TOKEN = TSimpleJSONProtocol.encodeKey(EXCEPTION_KEY);
+
+    private static final byte[] NULL_VALUE = "null".getBytes(StandardCharsets.UTF_8);
+    private static final TList BATCH_LIST = new TList(TType.STRUCT, 0);
+
+    private static final TStruct ANONYMOUS_STRUCT = new TStruct();
+    private static final TField STOP_FIELD = new TField("", TType.STOP, (short) -1);
+
+    private final SchemaSource schemaSource;
+    // The schema for the message being read or written
+    private CompiledSchema schema;
     private final String service;
+    private final boolean multiplexed;
     private final String struct;
-    private final LinkedList<Object> params;
+    private final TokenTape params;
+    // Null when streaming
+    private final PlannedDecoder plannedDecoder;
+    // Whether the last message was decoded by the plannedDecoder
+    private boolean planned;
+    private final StreamingJsonDecoder decoder;
     private final TSimpleJSONProtocol oprot;
+    // The struct each field is written in, for writing its key without looking it up by name
+    private final WriteStack writes = new WriteStack();
+    private final JsonFramer framer;
+    private final boolean messageIds;
+    // Null unless unknown fields are skipped
+    private final SkippedFields skippedFields;
+    private byte[] input = new byte[1024];
+    // Where the message being read is, in input or in the buffer of the framer
+    private byte[] message;
+    private int messageOffset;
+    // The length of a message that was read ahead, or -1
+    private int pendingLength = -1;
+    private JsonReader aheadReader;
     private TException err;
     private boolean structRead;
 
-    private HumanReadableJsonProtocol(TTransport transport, JSONArray metadata, String service, String struct) {
+    private HumanReadableJsonProtocol(TTransport transport, Factory options, String service, String struct) {
         super(transport);
-        this.metadata = metadata;
+        this.schemaSource = options.schema;
+        this.schema = schemaSource.current();
         this.service = service;
+        this.multiplexed = options.multiplexed;
         this.struct = struct;
-        this.params = new LinkedList<>();
-        oprot = new TSimpleJSONProtocol(transport);
+        this.params = new TokenTape();
+        this.decoder = options.streaming ? new StreamingJsonDecoder(options.skippedFields) : null;
+        this.plannedDecoder = options.streaming ? null : new PlannedDecoder();
+        oprot = new TSimpleJSONProtocol(transport, options.highWaterMark, options.maxDepth);
+        oprot.setLineDelimited(options.framed);
+        this.framer = options.framed ? new JsonFramer() : null;
+        this.messageIds = options.messageIds;
+        this.skippedFields = options.skippedFields;
     }
 
     /**
      * Use this when you want to parse an entire request coming in. You need to pass in the name of the
      * service without the name of the package. You will then be able to use whatever handler you
      * passed in to handle the incoming request
+     * <p>
+     * This compiles the metadata on every call, prefer {@link #forService(TTransport, CompiledSchema, String)}
+     * or the {@link Factory} if you are creating more than one protocol.
      *
      * @param transport
      * @param metadata
@@ -87,13 +253,20 @@ public class HumanReadableJsonProtocol extends TProtocol {
      * @return
      */
     public static HumanReadableJsonProtocol forService(TTransport transport, JSONArray metadata, String service) {
-        return new HumanReadableJsonProtocol(transport, metadata, service, null);
+        return forService(transport, CompiledSchema.compile(metadata), service);
+    }
+
+    public static HumanReadableJsonProtocol forService(TTransport transport, CompiledSchema schema, String service) {
+        return (HumanReadableJsonProtocol) new Factory(schema, service).getProtocol(transport);
     }
 
     /**
      * Use this when you want to Marhsal/Unmarshal a struct. Make sure the struct name HAS the name of the
      * package. So "package.Struct". The reason for this is that we need to know the package to qucikly find
      * the struct.
+     * <p>
+     * This compiles the metadata on every call, prefer {@link #forStruct(TTransport, CompiledSchema, String)}
+     * if you are creating more than one protocol.
      *
      * @param transport
      * @param metadata
@@ -101,43 +274,24 @@ public class HumanReadableJsonProtocol extends TProtocol {
      * @return
      */
     public static HumanReadableJsonProtocol forStruct(TTransport transport, JSONArray metadata, String struct) {
-        return new HumanReadableJsonProtocol(transport, metadata, null, struct);
+        return forStruct(transport, CompiledSchema.compile(metadata), struct);
     }
 
-    private JSONObject findInJsonArray(JSONArray arr, String key, String value) throws JSONException {
-        for (int i = 0; i < arr.length(); i++) {
-            JSONObject obj = arr.getJSONObject(i);
-            if (value.equals(obj.getString(key))) {
-                return obj;
-            }
-        }
-
-        return null;
+    public static HumanReadableJsonProtocol forStruct(TTransport transport, CompiledSchema schema, String struct) {
+        return new Factory(schema, null).getStructProtocol(transport, struct);
     }
 
-    private JSONObject getMethodInfo(String serviceName, String methodName) throws JSONException {
-        for (int i = 0; i < metadata.length(); i++) {
-            JSONObject v = metadata.getJSONObject(i);
-            if (v.has(SERVICES_KEY)) {
-                JSONObject svc = findInJsonArray(v.getJSONArray(SERVICES_KEY), NAME_KEY,
-                        v.getString(NAME_KEY) + "." + serviceName);
-                if (svc != null) {
-                    JSONObject methodInfo =
-                            findInJsonArray(svc.getJSONArray(FUNCTIONS_KEY), NAME_KEY, methodName);
-                    if (methodInfo != null) {
-                        return methodInfo;
-                    }
-                }
-            }
+    private ServiceInfo getServiceInfo(JSONObject request, String methodName) throws TProtocolException {
+        if (multiplexed) {
+            return schema.serviceFor(request.optString(SERVICE_KEY, null), methodName);
         }
-
-        return null;
+        return schema.service(service);
     }
 
     private byte[] getMessageTypeAndSeq(JSONObject request,
-                                        JSONObject methodInfo) throws TProtocolException {
+                                        MethodInfo methodInfo) throws TProtocolException {
         if (request.has(ARGUMENTS_REQUEST_KEY)) {
-            if (methodInfo != null && methodInfo.has((ONEWAY_KEY))) {
+            if (methodInfo != null && methodInfo.oneway) {
                 return new byte[]{TMessageType.ONEWAY, 0};
             } else {
                 return new byte[]{TMessageType.CALL, 0};
@@ -152,20 +306,13 @@ public class HumanReadableJsonProtocol extends TProtocol {
         }
     }
 
-    private void add(Object... vals) {
-        for (Object o : vals) {
-            params.add(o);
+    private StructInfo getInfo(String clazz) throws TProtocolException {
+        StructInfo info = schema.struct(clazz);
+        if (info == null) {
+            throw new TProtocolException(TProtocolException.INVALID_DATA,
+                    new Exception("Unknown struct " + clazz));
         }
-    }
-
-    private JSONObject getInfo(String clazz) throws JSONException {
-        String[] parts = clazz.split("\\.");
-        JSONObject program = findInJsonArray(metadata, NAME_KEY, parts[0]);
-        return findInJsonArray(program.getJSONArray(STRUCTS_KEY), NAME_KEY, parts[1]);
-    }
-
-    private JSONArray getStructFieldList(JSONObject elemType) throws JSONException {
-        return getInfo(elemType.getString(CLASS_KEY)).getJSONArray(FIELDS_KEY);
+        return info;
     }
 
     private void raiseExpected(String type, Object got) throws TProtocolException {
@@ -174,98 +321,98 @@ public class HumanReadableJsonProtocol extends TProtocol {
                         (got == null ? "null" : got.getClass().getSimpleName())));
     }
 
-    private void parse(JSONObject fieldInfo, Object value, String fieldTypeIdKey,
-                       String fieldTypeKey) throws JSONException, TProtocolException {
-        String fieldType = fieldInfo.getString(fieldTypeIdKey);
-
-        switch (fieldType) {
-            case "bool":
+    private void parse(TypeInfo type, Object value) throws JSONException, TProtocolException {
+        switch (type.ttype) {
+            case TType.BOOL:
                 if (value instanceof Boolean) {
-                    add(value);
+                    params.addLong((Boolean) value ? 1 : 0);
                 } else {
                     raiseExpected("bool", value);
                 }
                 break;
 
-            case "i8":
-            case "i16":
-            case "i32":
-            case "i64":
-            case "double":
+            case TType.BYTE:
+            case TType.I16:
+            case TType.I32:
+            case TType.I64:
+                if (value instanceof Number) {
+                    params.addLong(((Number) value).longValue());
+                } else {
+                    raiseExpected(type.typeId, value);
+                }
+                break;
+
+            case TType.DOUBLE:
                 if (value instanceof Number) {
-                    add(value);
+                    params.addDouble(((Number) value).doubleValue());
                 } else {
-                    raiseExpected(fieldType, value);
+                    raiseExpected(type.typeId, value);
                 }
                 break;
 
-            case "string":
+            case TType.STRING:
                 if (value instanceof String) {
-                    add(value);
+                    params.addObject(value);
                 } else {
                     raiseExpected("string", value);
                 }
                 break;
 
-            case "struct":
-            case "union":
-            case "exception":
-                parseStruct(getStructFieldList(fieldInfo.getJSONObject(fieldTypeKey)), value);
+            case TType.STRUCT:
+                parseStruct(type.struct(), value);
                 break;
 
-            case "map":
-                parseMap(fieldInfo.getJSONObject(fieldTypeKey), value);
+            case TType.MAP:
+                parseMap(type, value);
                 break;
 
-            case "set":
-                parseSet(fieldInfo.getJSONObject(fieldTypeKey), value);
+            case TType.SET:
+                parseSet(type, value);
                 break;
-            case "list":
-                parseList(fieldInfo.getJSONObject(fieldTypeKey), value);
+            case TType.LIST:
+                parseList(type, value);
                 break;
 
             default:
                 throw new TProtocolException(TProtocolException.INVALID_DATA,
-                        new Exception("Unexpected type " + fieldType));
+                        new Exception("Unexpected type " + type.typeId));
         }
     }
 
-    private void parseMap(JSONObject fieldInfo,
+    private void parseMap(TypeInfo type,
                           Object request) throws TProtocolException, JSONException {
         if (!(request instanceof JSONObject)) {
             raiseExpected("JSON Object", request);
         }
         JSONObject jsonObject = (JSONObject) request;
 
-        byte keyType = stringToTypeId(fieldInfo.getString(KEY_TYPE_ID_KEY));
-        byte valueType = stringToTypeId(fieldInfo.getString(VALUE_TYPE_ID_KEY));
-        add(keyType, valueType, jsonObject.length());
+        params.addMap(type.keyType.ttype(), type.valueType.ttype(), jsonObject.length());
 
         Iterator<String> it = jsonObject.keys();
         while (it.hasNext()) {
             String key = it.next();
             Object value = jsonObject.get(key);
-            parse(fieldInfo, key, KEY_TYPE_ID_KEY, KEY_TYPE_KEY);
-            parse(fieldInfo, value, VALUE_TYPE_ID_KEY, VALUE_TYPE_KEY);
+            // Keys that are not strings are written as strings, since that is all JSON allows
+            parse(type.keyType, type.keyType.ttype == TType.STRING ? key : JSONObject.stringToValue(key));
+            parse(type.valueType, value);
         }
     }
 
-    private void parseList(JSONObject fieldInfo,
+    private void parseList(TypeInfo type,
                            Object request) throws TProtocolException, JSONException {
         if (!(request instanceof JSONArray)) {
             raiseExpected("JSON Array", request);
         }
         JSONArray jsonArray = (JSONArray) request;
 
-        byte elemType = stringToTypeId(fieldInfo.getString(ELEM_TYPE_ID_KEY));
-        add(elemType, jsonArray.length());
+        params.addList(type.elemType.ttype(), jsonArray.length());
 
         for (int i = 0; i < jsonArray.length(); i++) {
-            parse(fieldInfo, jsonArray.get(i), ELEM_TYPE_ID_KEY, ELEM_TYPE_KEY);
+            parse(type.elemType, jsonArray.get(i));
         }
     }
 
-    private void parseSet(JSONObject fieldInfo,
+    private void parseSet(TypeInfo type,
                           Object request) throws TProtocolException, JSONException {
         Iterator<? extends Object> it = null;
         int size = 0;
@@ -279,20 +426,19 @@ public class HumanReadableJsonProtocol extends TProtocol {
             raiseExpected("JSON Array", request);
         }
 
-        byte elemType = stringToTypeId(fieldInfo.getString(ELEM_TYPE_ID_KEY));
-        add(elemType, size);
+        params.addList(type.elemType.ttype(), size);
 
         while (it.hasNext()) {
             Object val = it.next();
-            if (val instanceof String && !fieldInfo.getString(ELEM_TYPE_ID_KEY).equals("string")) {
+            if (val instanceof String && type.elemType.ttype != TType.STRING) {
                 val = Integer.parseInt((String) val);
             }
-            parse(fieldInfo, val, ELEM_TYPE_ID_KEY, ELEM_TYPE_KEY);
+            parse(type.elemType, val);
         }
     }
 
-    public void parseStruct(JSONArray fieldsList,
-                            Object request) throws TProtocolException, JSONException {
+    private void parseStruct(StructInfo structInfo,
+                             Object request) throws TProtocolException, JSONException {
         if (!(request instanceof JSONObject)) {
             raiseExpected("JSON Object", request);
         }
@@ -302,140 +448,273 @@ public class HumanReadableJsonProtocol extends TProtocol {
         while (it.hasNext()) {
             String key = it.next();
             Object value = jsonObject.get(key);
-            JSONObject fieldInfo = findInJsonArray(fieldsList, NAME_KEY, key);
+            FieldInfo fieldInfo = structInfo.field(key);
             if (fieldInfo == null) {
-                throw new TProtocolException(TProtocolException.INVALID_DATA,
-                        new Exception("Unexpected key " + key));
+                if (skippedFields == null) {
+                    throw new TProtocolException(TProtocolException.INVALID_DATA,
+                            new Exception("Unexpected key " + key));
+                }
+                skippedFields.add(structInfo.name, key);
+                continue;
             }
 
-            byte fieldType = stringToTypeId(fieldInfo.getString(TYPE_ID_KEY));
-            add(key, fieldType, (short) fieldInfo.optInt(KEY_KEY, 0));
-            parse(fieldInfo, value, TYPE_ID_KEY, TYPE_KEY);
-        }
-        add("", TType.STOP, (short) -1);
-    }
-
-    private byte stringToTypeId(String fieldType) throws TProtocolException {
-        switch (fieldType) {
-            case "bool":
-                return TType.BOOL;
-            case "i8":
-                return TType.BYTE;
-            case "i16":
-                return TType.I16;
-            case "i32":
-                return TType.I32;
-            case "i64":
-                return TType.I64;
-            case "double":
-                return TType.DOUBLE;
-            case "string":
-                return TType.STRING;
-            case "struct":
-            case "union":
-            case "exception":
-                return TType.STRUCT;
-            case "map":
-                return TType.MAP;
-            case "set":
-                return TType.SET;
-            case "list":
-                return TType.LIST;
-            default:
-                throw new TProtocolException(TProtocolException.INVALID_DATA,
-                        new Exception("Unknown type identifier " + fieldType));
+            fieldInfo.type.requireKnownType();
+            params.addField(fieldInfo.tField);
+            parse(fieldInfo.type, value);
         }
+        params.addField(STOP_FIELD);
     }
 
     @Override
     public TMessage readMessageBegin() throws TException {
         try {
-            if (service == null) {
+            if (service == null && !multiplexed) {
                 throw new TException("Service Name is required to parse JSON");
             }
+            schema = schemaSource.current();
+            if (decoder != null) {
+                int length = readMessage();
+                decoder.reset(message, messageOffset, length);
+                return decoder.readMessageBegin(schema, multiplexed ? null : service);
+            }
             return readMessageBeginHelper();
+        } catch (TTransportException e) {
+            // The end of the connection, which servers look for
+            throw e;
         } catch (Exception e) {
             throw new TException(e);
         }
     }
 
-    private JSONObject readAllFromTransport() throws JSONException, IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    /**
+     * Reads the next message into {@link #message}, starting at {@link #messageOffset}.
+     *
+     * @return the length of the message
+     */
+    private int readMessage() throws TTransportException, TProtocolException {
+        if (pendingLength >= 0) {
+            int length = pendingLength;
+            pendingLength = -1;
+            return length;
+        }
+        if (framer != null) {
+            int length = framer.next(getTransport());
+            message = framer.buffer();
+            messageOffset = framer.start();
+            return length;
+        }
+        int length = readAllFromTransport();
+        message = input;
+        messageOffset = 0;
+        return length;
+    }
 
+    /**
+     * Reads the whole message into {@link #input}, there is no framing so that is until the
+     * transport has nothing more to give.
+     *
+     * @return the number of bytes read
+     */
+    private int readAllFromTransport() {
         TTransport transport = getTransport();
-        byte buffer[] = new byte[1024];
+        int length = 0;
         while (true) {
+            if (length == input.length) {
+                input = Arrays.copyOf(input, input.length * 2);
+            }
             try {
-                int amt = transport.read(buffer, 0, buffer.length);
+                int amt = transport.read(input, length, input.length - length);
                 if (amt <= 0) {
                     break;
                 }
-                byteArrayOutputStream.write(buffer, 0, amt);
+                length += amt;
             } catch (Exception e) {
                 break;
             }
         }
 
-        return new JSONObject(byteArrayOutputStream.toString("UTF-8"));
+        return length;
+    }
+
+    /**
+     * Reads the next message ahead to see if it is a batch, a JSON array of messages. See
+     * {@link BatchProcessor}.
+     *
+     * @return a transport over each message of the batch, or null if it is a single message, which
+     * the next {@link #readMessageBegin()} then reads
+     */
+    TMemoryInputTransport[] readBatch() throws TException {
+        JsonReader reader = readAhead();
+        if (!reader.consume('[')) {
+            return null;
+        }
+        consumeAhead();
+
+        List<TMemoryInputTransport> calls = new ArrayList<>();
+        if (!reader.consume(']')) {
+            do {
+                reader.peek();
+                int start = reader.position();
+                reader.skipValue();
+                calls.add(new TMemoryInputTransport(message, start, reader.position() - start));
+            } while (reader.consume(','));
+            reader.expect(']');
+        }
+        return calls.toArray(new TMemoryInputTransport[calls.size()]);
+    }
+
+    /**
+     * Reads the next message ahead of {@link #readMessageBegin()}, which reads it again unless
+     * {@link #consumeAhead()} is called.
+     *
+     * @return a reader at the start of the message
+     */
+    JsonReader readAhead() throws TException {
+        if (pendingLength < 0) {
+            pendingLength = readMessage();
+        }
+        if (aheadReader == null) {
+            aheadReader = new JsonReader();
+            aheadReader.skippedFields(skippedFields);
+        }
+        aheadReader.reset(message, messageOffset, pendingLength);
+        return aheadReader;
+    }
+
+    /**
+     * Drops the message that was read ahead, it was handled without {@link #readMessageBegin()}.
+     */
+    void consumeAhead() {
+        pendingLength = -1;
+    }
+
+    /**
+     * @return where messages are written, for writing a value that was not given to this protocol
+     */
+    TSimpleJSONProtocol output() {
+        return oprot;
+    }
+
+    /**
+     * @return the method of the service of this protocol in the current schema, or null if there
+     * is none or the protocol serves every service
+     */
+    MethodInfo method(String name) {
+        ServiceInfo serviceInfo = service == null ? null : schemaSource.current().service(service);
+        return serviceInfo == null ? null : serviceInfo.method(name);
+    }
+
+    /**
+     * @return whether the protocol serves every service in the schema
+     */
+    boolean multiplexed() {
+        return multiplexed;
+    }
+
+    /**
+     * @return whether the last message read was decoded with the plan of the schema instead of
+     * being parsed as a {@link JSONObject}
+     */
+    boolean planned() {
+        return planned;
+    }
+
+    /**
+     * Writes the responses to the messages of a batch as a JSON array in the same order. A call
+     * without a response, like a oneway call, is written as null.
+     */
+    void writeBatch(TMemoryBuffer[] responses) throws TException {
+        oprot.writeListBegin(BATCH_LIST);
+        for (TMemoryBuffer response : responses) {
+            if (response == null || response.length() == 0) {
+                oprot.writeRawValue(NULL_VALUE, 0, NULL_VALUE.length);
+            } else {
+                oprot.writeRawValue(response.getArray(), 0, response.length());
+            }
+        }
+        oprot.writeListEnd();
+    }
+
+    private JSONObject readJsonFromTransport() throws JSONException {
+        // Read first, the input buffer is replaced when it has to grow
+        int length = readAllFromTransport();
+        return new JSONObject(new String(input, 0, length, StandardCharsets.UTF_8));
     }
 
-    private TMessage readMessageBeginHelper() throws JSONException, TProtocolException, IOException {
-        JSONObject request = readAllFromTransport();
+    private TMessage readMessageBeginHelper() throws JSONException, TException {
+        params.reset();
+        err = null;
+        int length = readMessage();
+        // Most calls are covered by the plan, the rest are parsed as a JSONObject
+        TMessage call = plannedDecoder.readCall(message, messageOffset, length, schema,
+                multiplexed ? null : service, params);
+        planned = call != null;
+        if (planned) {
+            return call;
+        }
+        params.reset();
+        JSONObject request = new JSONObject(new String(message, messageOffset, length, StandardCharsets.UTF_8));
 
         String name = request.getString(METHOD_KEY);
-        JSONObject methodInfo = getMethodInfo(service, name);
+        ServiceInfo serviceInfo = getServiceInfo(request, name);
+        MethodInfo methodInfo = null;
+        if (serviceInfo != null) {
+            methodInfo = serviceInfo.method(multiplexed ? CompiledSchema.methodName(name) : name);
+            if (multiplexed) {
+                name = CompiledSchema.multiplexedName(serviceInfo, name);
+            }
+        }
         byte[] messageTypeAndSeq = getMessageTypeAndSeq(request, methodInfo);
         byte typeId = messageTypeAndSeq[0];
-        byte seqId = messageTypeAndSeq[1];
+        int seqId = request.has(ID_KEY) ? request.getInt(ID_KEY) : messageTypeAndSeq[1];
 
         if (request.has(ARGUMENTS_REQUEST_KEY)) {
             if (methodInfo == null) {
-                add("", TType.STOP, (short) -1);
+                params.addField(STOP_FIELD);
                 return new TMessage(name, typeId, seqId);
             }
 
-            parseStruct(methodInfo.getJSONArray(ARGUMENTS_KEY), request.get(ARGUMENTS_REQUEST_KEY));
+            parseStruct(methodInfo.arguments, request.get(ARGUMENTS_REQUEST_KEY));
         } else if (request.has(RESULT_KEY)) {
             if (methodInfo == null) {
-                add("", TType.STOP, (short) -1);
+                params.addField(STOP_FIELD);
                 return new TMessage(name, typeId, seqId);
             }
 
             JSONObject result = request.getJSONObject(RESULT_KEY);
             if (result.has(SUCCESS_KEY)) {
                 try {
-                    byte returnType = stringToTypeId(methodInfo.getString(RETURN_TYPE_ID_KEY));
-                    add("", returnType, (short) 0);
-                    parse(methodInfo, result.get(SUCCESS_KEY), RETURN_TYPE_ID_KEY, RETURN_TYPE_KEY);
-                    add("", TType.STOP, (short) -1);
+                    methodInfo.returnType.requireKnownType();
+                    params.addField(methodInfo.result.field(SUCCESS_KEY).tField);
+                    parse(methodInfo.returnType, result.get(SUCCESS_KEY));
+                    params.addField(STOP_FIELD);
                 } catch (Exception e) {
                     err = new TException(e);
                 }
             } else if (result.length() == 0) {
-                add("", TType.STOP, (short) -1);
+                params.addField(STOP_FIELD);
             } else {
                 String errName = (String) result.keys().next();
-                JSONObject errInfo =
-                        findInJsonArray(methodInfo.getJSONArray(EXCEPTIONS_KEY), NAME_KEY, errName);
+                FieldInfo errInfo = methodInfo.exceptions.field(errName);
                 if (errInfo == null) {
                     throw new TProtocolException(TProtocolException.INVALID_DATA,
                             new Exception("Unable to parse result"));
                 }
-                add(errName, TType.STRUCT, (short) errInfo.getInt(KEY_KEY));
+                params.addField(errInfo.tField);
 
                 try {
-                    parse(errInfo, result.get(errName), TYPE_ID_KEY, TYPE_KEY);
+                    parse(errInfo.type, result.get(errName));
                 } catch (Exception e) {
                     err = new TException(e);
                 }
-                add("", TType.STOP, (short) -1);
+                params.addField(STOP_FIELD);
             }
         } else if (request.has(EXCEPTION_KEY)) {
-            add("", TType.STRING, (short) 1);
-            add(request.getJSONObject(EXCEPTION_KEY).optString(MESSAGE_KEY, ""));
-            add("", TType.I32, (short) 2);
-            add(request.getJSONObject(EXCEPTION_KEY).optInt(TYPE_KEY, TProtocolException.UNKNOWN));
-            add("", TType.STOP, (short) -1);
+            params.addField(schema.applicationException().field(MESSAGE_KEY).tField);
+            params.addObject(request.getJSONObject(EXCEPTION_KEY).optString(MESSAGE_KEY, ""));
+            params.addField(schema.applicationException().field(TYPE_KEY).tField);
+            params.addLong(request.getJSONObject(EXCEPTION_KEY).optInt(TYPE_KEY, TProtocolException.UNKNOWN));
+            params.addField(STOP_FIELD);
         } else {
             throw new TProtocolException(TProtocolException.INVALID_DATA,
                     new Exception("Unable to parse result"));
@@ -464,23 +743,37 @@ public class HumanReadableJsonProtocol extends TProtocol {
             }
         }
 
-        return new TStruct();
+        if (decoder != null) {
+            return decoder.readStructBegin();
+        }
+        return ANONYMOUS_STRUCT;
     }
 
-    private void readStructBeginHelper() throws JSONException, TException, IOException {
-        JSONObject request = readAllFromTransport();
-        parseStruct(getInfo(struct).getJSONArray(FIELDS_KEY), request);
+    private void readStructBeginHelper() throws JSONException, TException {
+        if (decoder != null) {
+            int length = readAllFromTransport();
+            decoder.reset(input, 0, length);
+            decoder.startStruct(getInfo(struct));
+            return;
+        }
+        params.reset();
+        JSONObject request = readJsonFromTransport();
+        parseStruct(getInfo(struct), request);
     }
 
     @Override
     public void readStructEnd() throws TException {
-        //  No-op
+        if (decoder != null) {
+            decoder.readStructEnd();
+        }
     }
 
     @Override
     public TField readFieldBegin() throws TException {
-        return new TField((String) params.pollFirst(), (Byte) params.pollFirst(),
-                (Short) params.pollFirst());
+        if (decoder != null) {
+            return decoder.readFieldBegin();
+        }
+        return params.nextField();
     }
 
     @Override
@@ -490,68 +783,103 @@ public class HumanReadableJsonProtocol extends TProtocol {
 
     @Override
     public TMap readMapBegin() throws TException {
-        return new TMap((Byte) params.pollFirst(), (Byte) params.pollFirst(),
-                (Integer) params.pollFirst());
+        if (decoder != null) {
+            return decoder.readMapBegin();
+        }
+        return new TMap(params.peekType(), params.peekValueType(), params.nextSize());
     }
 
     @Override
     public void readMapEnd() throws TException {
-        //  No-op
+        if (decoder != null) {
+            decoder.readMapEnd();
+        }
     }
 
     @Override
     public TList readListBegin() throws TException {
-        return new TList((Byte) params.pollFirst(), (Integer) params.pollFirst());
+        if (decoder != null) {
+            return decoder.readListBegin();
+        }
+        return new TList(params.peekType(), params.nextSize());
     }
 
     @Override
     public void readListEnd() throws TException {
-        //  No-op
+        if (decoder != null) {
+            decoder.readListEnd();
+        }
     }
 
     @Override
     public TSet readSetBegin() throws TException {
-        return new TSet((Byte) params.pollFirst(), (Integer) params.pollFirst());
+        if (decoder != null) {
+            return decoder.readSetBegin();
+        }
+        return new TSet(params.peekType(), params.nextSize());
     }
 
     @Override
     public void readSetEnd() throws TException {
-        //  No-op
+        if (decoder != null) {
+            decoder.readSetEnd();
+        }
     }
 
     @Override
     public boolean readBool() throws TException {
-        return (boolean) params.pollFirst();
+        if (decoder != null) {
+            return decoder.readBool();
+        }
+        return params.nextLong() != 0;
     }
 
     @Override
     public byte readByte() throws TException {
-        return ((Number) params.pollFirst()).byteValue();
+        if (decoder != null) {
+            return decoder.readByte();
+        }
+        return (byte) params.nextLong();
     }
 
     @Override
     public short readI16() throws TException {
-        return ((Number) params.pollFirst()).shortValue();
+        if (decoder != null) {
+            return decoder.readI16();
+        }
+        return (short) params.nextLong();
     }
 
     @Override
     public int readI32() throws TException {
-        return ((Number) params.pollFirst()).intValue();
+        if (decoder != null) {
+            return decoder.readI32();
+        }
+        return (int) params.nextLong();
     }
 
     @Override
     public long readI64() throws TException {
-        return ((Number) params.pollFirst()).longValue();
+        if (decoder != null) {
+            return decoder.readI64();
+        }
+        return params.nextLong();
     }
 
     @Override
     public double readDouble() throws TException {
-        return ((Number) params.pollFirst()).doubleValue();
+        if (decoder != null) {
+            return decoder.readDouble();
+        }
+        return params.nextDouble();
     }
 
     @Override
     public String readString() throws TException {
-        return (String) params.pollFirst();
+        if (decoder != null) {
+            return decoder.readString();
+        }
+        return (String) params.nextObject();
     }
 
     @Override
@@ -559,24 +887,68 @@ public class HumanReadableJsonProtocol extends TProtocol {
         return ByteBuffer.wrap(readString().getBytes());
     }
 
+    /**
+     * @return the number of bytes written by this protocol so far
+     */
+    public long getBytesWritten() {
+        return oprot.getBytesWritten();
+    }
+
     @Override
     public void writeMessageBegin(TMessage tMessage) throws TException {
+        schema = schemaSource.current();
+        // A message is never inside another value, anything left is from one that failed
+        oprot.reset();
         oprot.writeStructBegin(null);
-        oprot.writeString(METHOD_KEY);
-        oprot.writeString(tMessage.name);
+        oprot.writeKey(METHOD_KEY_TOKEN);
+        MethodInfo method = writtenMethod(tMessage.name);
+        byte[] name = method != null && method.name.equals(tMessage.name)
+                ? method.nameToken : schema.nameToken(tMessage.name);
+        if (name != null) {
+            oprot.writeEncodedString(name);
+        } else {
+            oprot.writeString(tMessage.name);
+        }
+        if (messageIds) {
+            oprot.writeKey(ID_KEY_TOKEN);
+            oprot.writeI32(tMessage.seqid);
+        }
         switch (tMessage.type) {
             case TMessageType.CALL:
-                oprot.writeString(ARGUMENTS_REQUEST_KEY);
+                oprot.writeKey(ARGUMENTS_KEY_TOKEN);
+                writes.reset(method == null ? null : method.arguments);
                 break;
             case TMessageType.REPLY:
-                oprot.writeString(RESULT_KEY);
+                oprot.writeKey(RESULT_KEY_TOKEN);
+                writes.reset(method == null ? null : method.result);
                 break;
             case TMessageType.EXCEPTION:
-                oprot.writeString(EXCEPTION_KEY);
+                oprot.writeKey(EXCEPTION_KEY_TOKEN);
+                writes.reset(schema.applicationException());
                 break;
+            default:
+                writes.reset(null);
         }
     }
 
+    /**
+     * @return the method of a message being written, or null if it is not in the schema
+     */
+    private MethodInfo writtenMethod(String name) {
+        ServiceInfo serviceInfo;
+        if (multiplexed) {
+            try {
+                serviceInfo = schema.serviceFor(null, name);
+            } catch (TProtocolException e) {
+                // A reply to a method more than one service has, its keys are looked up by name
+                return null;
+            }
+        } else {
+            serviceInfo = schema.service(service);
+        }
+        return serviceInfo == null ? null : serviceInfo.method(multiplexed ? CompiledSchema.methodName(name) : name);
+    }
+
     @Override
     public void writeMessageEnd() throws TException {
         oprot.writeStructEnd();
@@ -584,17 +956,29 @@ public class HumanReadableJsonProtocol extends TProtocol {
 
     @Override
     public void writeStructBegin(TStruct tStruct) throws TException {
+        if (struct != null && writes.isEmpty()) {
+            writes.reset(schema.struct(struct));
+        }
+        writes.pushStruct();
         oprot.writeStructBegin(tStruct);
     }
 
     @Override
     public void writeStructEnd() throws TException {
+        writes.pop();
         oprot.writeStructEnd();
     }
 
     @Override
     public void writeFieldBegin(TField tField) throws TException {
-        oprot.writeString(tField.name);
+        FieldInfo field = writes.field(tField);
+        // A struct the schema does not describe can still use the key of a field with that name
+        byte[] key = field != null ? field.keyToken : schema.keyToken(tField.name);
+        if (key != null) {
+            oprot.writeKey(key);
+        } else {
+            oprot.writeString(tField.name);
+        }
     }
 
     @Override
@@ -609,31 +993,37 @@ public class HumanReadableJsonProtocol extends TProtocol {
 
     @Override
     public void writeMapBegin(TMap tMap) throws TException {
-        oprot.writeStructBegin(null);
+        writes.pushContainer();
+        oprot.writeMapBegin(tMap);
     }
 
     @Override
     public void writeMapEnd() throws TException {
-        oprot.writeStructEnd();
+        writes.pop();
+        oprot.writeMapEnd();
     }
 
     @Override
     public void writeListBegin(TList tList) throws TException {
+        writes.pushContainer();
         oprot.writeListBegin(tList);
     }
 
     @Override
     public void writeListEnd() throws TException {
+        writes.pop();
         oprot.writeListEnd();
     }
 
     @Override
     public void writeSetBegin(TSet tSet) throws TException {
+        writes.pushContainer();
         oprot.writeSetBegin(tSet);
     }
 
     @Override
     public void writeSetEnd() throws TException {
+        writes.pop();
         oprot.writeSetEnd();
     }
 
@@ -0,0 +1,34 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+
+/**
+ * Reads and writes one generated Thrift class as JSON, straight from the bytes and to the output,
+ * instead of through the {@link org.apache.thrift.protocol.TProtocol} calls of its read and write.
+ * Codecs are generated at build time by {@link JsonCodecGenerator} and used by
+ * {@link JsonCodecProcessor}.
+ */
+public interface JsonCodec<T> {
+
+    /**
+     * Validates what it read, as the read of the generated class does.
+     */
+    T read(JsonReader in) throws TException;
+
+    void write(T value, TSimpleJSONProtocol out) throws TException;
+
+    /**
+     * The codecs for the arguments and the result of one method of a service.
+     */
+    final class Method<A extends TBase<?, ?>, R extends TBase<?, ?>> {
+        public final JsonCodec<A> arguments;
+        // Null for a oneway method, which has no result
+        public final JsonCodec<R> result;
+
+        public Method(JsonCodec<A> arguments, JsonCodec<R> result) {
+            this.arguments = arguments;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,712 @@
+package com.devansh.humanthrift;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the source of a {@link JsonCodec} for every struct in the Thrift JSON metadata, and for
+ * the arguments and result of every method of every service, to be compiled together with the
+ * classes generated by the Thrift compiler. Run it with {@code gradle generateJsonCodecs}, or with
+ * the metadata directory, the output directory and the Java package of the generated classes.
+ * <p>
+ * The package is taken from the "java" namespace of a program when the metadata has it. Unions
+ * and binary fields are not supported, structs and methods that use them are left to the generic
+ * protocol path.
+ */
+public class JsonCodecGenerator {
+
+    private static final String NAME_KEY = "name";
+    private static final String STRUCTS_KEY = "structs";
+    private static final String SERVICES_KEY = "services";
+    private static final String FUNCTIONS_KEY = "functions";
+    private static final String FIELDS_KEY = "fields";
+    private static final String ARGUMENTS_KEY = "arguments";
+    private static final String EXCEPTIONS_KEY = "exceptions";
+    private static final String ONEWAY_KEY = "oneway";
+    private static final String NAMESPACES_KEY = "namespaces";
+    private static final String IS_UNION_KEY = "isUnion";
+    private static final String REQUIRED_KEY = "required";
+    private static final String CLASS_KEY = "class";
+    private static final String TYPE_ID_KEY = "typeId";
+    private static final String TYPE_KEY = "type";
+    private static final String KEY_TYPE_ID_KEY = "keyTypeId";
+    private static final String KEY_TYPE_KEY = "keyType";
+    private static final String VALUE_TYPE_ID_KEY = "valueTypeId";
+    private static final String VALUE_TYPE_KEY = "valueType";
+    private static final String ELEM_TYPE_ID_KEY = "elemTypeId";
+    private static final String ELEM_TYPE_KEY = "elemType";
+    private static final String RETURN_TYPE_ID_KEY = "returnTypeId";
+    private static final String RETURN_TYPE_KEY = "returnType";
+
+    /**
+     * @param args the directory with the Thrift JSON files, the directory to write the sources to
+     *             and the Java package of the classes generated by the Thrift compiler
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: JsonCodecGenerator <thrift-json directory> <output directory> <java package>");
+            System.exit(1);
+        }
+        new JsonCodecGenerator(HumanReadableJsonHelpers.readAllFiles(args[0]), args[2]).generate(Paths.get(args[1]));
+    }
+
+    private static final class TypeSpec {
+        final String typeId;
+        final String className;
+        final TypeSpec keyType;
+        final TypeSpec valueType;
+        final TypeSpec elemType;
+
+        TypeSpec(JSONObject info, String typeIdKey, String typeKey) {
+            this.typeId = info.getString(typeIdKey);
+            JSONObject type = info.optJSONObject(typeKey);
+            this.className = type == null ? null : type.optString(CLASS_KEY, null);
+            this.keyType = type != null && type.has(KEY_TYPE_ID_KEY) ? new TypeSpec(type, KEY_TYPE_ID_KEY, KEY_TYPE_KEY) : null;
+            this.valueType = type != null && type.has(VALUE_TYPE_ID_KEY) ? new TypeSpec(type, VALUE_TYPE_ID_KEY, VALUE_TYPE_KEY) : null;
+            this.elemType = type != null && type.has(ELEM_TYPE_ID_KEY) ? new TypeSpec(type, ELEM_TYPE_ID_KEY, ELEM_TYPE_KEY) : null;
+        }
+
+        boolean isStruct() {
+            return typeId.equals("struct") || typeId.equals("exception");
+        }
+
+        boolean isEnum() {
+            return typeId.equals("i32") && className != null;
+        }
+    }
+
+    private static final class FieldSpec {
+        final String name;
+        final TypeSpec type;
+        final boolean optional;
+
+        FieldSpec(String name, TypeSpec type, boolean optional) {
+            this.name = name;
+            this.type = type;
+            this.optional = optional;
+        }
+    }
+
+    private static final class StructSpec {
+        // "program.Struct" as in the metadata
+        final String name;
+        final String javaPackage;
+        final String javaName;
+        final List<FieldSpec> fields;
+        final boolean union;
+
+        StructSpec(String name, String javaPackage, String javaName, List<FieldSpec> fields, boolean union) {
+            this.name = name;
+            this.javaPackage = javaPackage;
+            this.javaName = javaName;
+            this.fields = fields;
+            this.union = union;
+        }
+    }
+
+    private final JSONArray metadata;
+    private final String defaultPackage;
+    private final Map<String, String> packages = new HashMap<>();
+    private final Map<String, StructSpec> structs = new LinkedHashMap<>();
+    private final Map<String, StructSpec> supported = new HashMap<>();
+
+    public JsonCodecGenerator(JSONArray metadata, String defaultPackage) {
+        this.metadata = metadata;
+        this.defaultPackage = defaultPackage;
+    }
+
+    public void generate(Path outputDir) throws IOException {
+        for (int i = 0; i < metadata.length(); i++) {
+            JSONObject program = metadata.getJSONObject(i);
+            String programName = program.getString(NAME_KEY);
+            JSONObject namespaces = program.optJSONObject(NAMESPACES_KEY);
+            String javaPackage = namespaces == null ? defaultPackage : namespaces.optString("java", defaultPackage);
+            packages.put(programName, javaPackage);
+
+            JSONArray structList = program.optJSONArray(STRUCTS_KEY);
+            for (int j = 0; structList != null && j < structList.length(); j++) {
+                JSONObject struct = structList.getJSONObject(j);
+                String name = struct.getString(NAME_KEY);
+                structs.put(programName + "." + name, new StructSpec(programName + "." + name, javaPackage, name,
+                        fields(struct.getJSONArray(FIELDS_KEY)), struct.optBoolean(IS_UNION_KEY, false)));
+            }
+        }
+
+        findSupported();
+        for (StructSpec struct : structs.values()) {
+            if (supported.containsKey(struct.name)) {
+                write(outputDir, struct.javaPackage, codecName(struct), structCodec(struct));
+            } else {
+                System.out.println("Skipping " + struct.name + ", it has a union or binary field");
+            }
+        }
+
+        for (int i = 0; i < metadata.length(); i++) {
+            JSONObject program = metadata.getJSONObject(i);
+            String programName = program.getString(NAME_KEY);
+            JSONArray services = program.optJSONArray(SERVICES_KEY);
+            for (int j = 0; services != null && j < services.length(); j++) {
+                JSONObject service = services.getJSONObject(j);
+                String name = service.getString(NAME_KEY);
+                if (name.startsWith(programName + ".")) {
+                    name = name.substring(programName.length() + 1);
+                }
+                write(outputDir, packages.get(programName), name + "JsonCodecs",
+                        serviceCodecs(packages.get(programName), name, service.getJSONArray(FUNCTIONS_KEY)));
+            }
+        }
+    }
+
+    private static List<FieldSpec> fields(JSONArray fieldList) {
+        List<FieldSpec> fields = new ArrayList<>(fieldList.length());
+        for (int i = 0; i < fieldList.length(); i++) {
+            JSONObject field = fieldList.getJSONObject(i);
+            fields.add(new FieldSpec(field.getString(NAME_KEY), new TypeSpec(field, TYPE_ID_KEY, TYPE_KEY),
+                    "optional".equals(field.optString(REQUIRED_KEY))));
+        }
+        return fields;
+    }
+
+    /**
+     * A struct is supported if all of its fields are, which for a struct field means the struct
+     * it refers to. Starts with every struct that is not a union and drops the ones that are not
+     * supported until none are left to drop, so structs that refer to each other work out.
+     */
+    private void findSupported() {
+        for (StructSpec struct : structs.values()) {
+            if (!struct.union) {
+                supported.put(struct.name, struct);
+            }
+        }
+        boolean dropped = true;
+        while (dropped) {
+            dropped = false;
+            for (StructSpec struct : structs.values()) {
+                if (supported.containsKey(struct.name) && !supported(struct.fields)) {
+                    supported.remove(struct.name);
+                    dropped = true;
+                }
+            }
+        }
+    }
+
+    private boolean supported(List<FieldSpec> fields) {
+        for (FieldSpec field : fields) {
+            if (!supported(field.type, false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key if the type is a key of a map or a member of a set, which are strings in JSON
+     */
+    private boolean supported(TypeSpec type, boolean key) {
+        switch (type.typeId) {
+            case "i8":
+            case "i16":
+            case "i32":
+            case "i64":
+            case "double":
+            case "string":
+                return true;
+            case "bool":
+                return !key;
+            case "struct":
+            case "exception":
+                return !key && supported.containsKey(type.className);
+            case "list":
+                return !key && supported(type.elemType, false);
+            case "set":
+                return !key && supported(type.elemType, true);
+            case "map":
+                return !key && supported(type.keyType, true) && supported(type.valueType, false);
+            default:
+                return false;
+        }
+    }
+
+    private String javaClass(String className) {
+        int dot = className.indexOf('.');
+        return packages.get(className.substring(0, dot)) + "." + className.substring(dot + 1);
+    }
+
+    private static String codecName(StructSpec struct) {
+        return struct.javaName + "JsonCodec";
+    }
+
+    private String codecOf(String className) {
+        StructSpec struct = structs.get(className);
+        return struct.javaPackage + "." + codecName(struct);
+    }
+
+    private String javaType(TypeSpec type, boolean boxed) {
+        switch (type.typeId) {
+            case "bool":
+                return boxed ? "java.lang.Boolean" : "boolean";
+            case "i8":
+                return boxed ? "java.lang.Byte" : "byte";
+            case "i16":
+                return boxed ? "java.lang.Short" : "short";
+            case "i32":
+                if (type.isEnum()) {
+                    return javaClass(type.className);
+                }
+                return boxed ? "java.lang.Integer" : "int";
+            case "i64":
+                return boxed ? "java.lang.Long" : "long";
+            case "double":
+                return boxed ? "java.lang.Double" : "double";
+            case "string":
+                return "java.lang.String";
+            case "list":
+                return "java.util.List<" + javaType(type.elemType, true) + ">";
+            case "set":
+                return "java.util.Set<" + javaType(type.elemType, true) + ">";
+            case "map":
+                return "java.util.Map<" + javaType(type.keyType, true) + ", " + javaType(type.valueType, true) + ">";
+            default:
+                return javaClass(type.className);
+        }
+    }
+
+    private static boolean isPrimitive(TypeSpec type) {
+        switch (type.typeId) {
+            case "bool":
+            case "i8":
+            case "i16":
+            case "i64":
+            case "double":
+                return true;
+            case "i32":
+                return !type.isEnum();
+            default:
+                return false;
+        }
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String constantName(String name) {
+        StringBuilder constant = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(name.charAt(i - 1))) {
+                constant.append('_');
+            }
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.append("_KEY").toString();
+    }
+
+    private String structCodec(StructSpec struct) {
+        Code code = new Code();
+        code.line("package " + struct.javaPackage + ";");
+        code.line();
+        imports(code, struct.fields);
+        code.line("/**");
+        code.line(" * Generated by JsonCodecGenerator from " + struct.name + ", do not edit.");
+        code.line(" */");
+        code.open("public final class " + codecName(struct) + " implements JsonCodec<" + struct.javaName + ">");
+        code.line();
+        code.line("public static final " + codecName(struct) + " INSTANCE = new " + codecName(struct) + "();");
+        code.line();
+        codecBody(code, struct.javaName, struct.name, struct.fields);
+        code.close();
+        return code.toString();
+    }
+
+    private String serviceCodecs(String javaPackage, String service, JSONArray functions) {
+        List<String> methods = new ArrayList<>();
+        // The fields of all the codecs, for the imports they need
+        List<FieldSpec> fields = new ArrayList<>();
+        StringBuilder codecs = new StringBuilder();
+        for (int i = 0; i < functions.length(); i++) {
+            JSONObject function = functions.getJSONObject(i);
+            String name = function.getString(NAME_KEY);
+            boolean oneway = function.optBoolean(ONEWAY_KEY, false);
+
+            List<FieldSpec> arguments = fields(function.getJSONArray(ARGUMENTS_KEY));
+            List<FieldSpec> result = new ArrayList<>();
+            TypeSpec returnType = new TypeSpec(function, RETURN_TYPE_ID_KEY, RETURN_TYPE_KEY);
+            if (!returnType.typeId.equals("void")) {
+                // Written only when set, like every field of a result
+                result.add(new FieldSpec("success", returnType, true));
+            }
+            result.addAll(fields(function.getJSONArray(EXCEPTIONS_KEY)));
+
+            if (!supported(arguments) || !supported(result)) {
+                System.out.println("Skipping " + service + "." + name + ", it has a union or binary field");
+                continue;
+            }
+
+            Code codec = new Code();
+            codec.depth = 1;
+            codec.line();
+            nestedCodec(codec, service + "." + name + "_args", name + "_args", arguments);
+            fields.addAll(arguments);
+            if (!oneway) {
+                codec.line();
+                nestedCodec(codec, service + "." + name + "_result", name + "_result", result);
+                fields.addAll(result);
+            }
+            codecs.append(codec);
+            methods.add("methods.put(\"" + name + "\", new JsonCodec.Method<>(new " + name + "_argsJsonCodec(), "
+                    + (oneway ? "null" : "new " + name + "_resultJsonCodec()") + "));");
+        }
+
+        Code code = new Code();
+        code.line("package " + javaPackage + ";");
+        code.line();
+        imports(code, fields);
+        code.line("/**");
+        code.line(" * Generated by JsonCodecGenerator from " + service + ", do not edit.");
+        code.line(" */");
+        code.open("public final class " + service + "JsonCodecs");
+        code.line();
+
+        code.line("public static final java.util.Map<String, JsonCodec.Method<?, ?>> METHODS;");
+        code.line();
+        code.open("static");
+        code.line("java.util.Map<String, JsonCodec.Method<?, ?>> methods = new java.util.HashMap<>();");
+        for (String method : methods) {
+            code.line(method);
+        }
+        code.line("METHODS = java.util.Collections.unmodifiableMap(methods);");
+        code.close();
+        code.line();
+        code.open("private " + service + "JsonCodecs()");
+        code.close();
+        code.append(codecs);
+        code.close();
+        return code.toString();
+    }
+
+    /**
+     * @param name the name of the struct in the schema, which is also the name of its Java class
+     */
+    private void nestedCodec(Code code, String javaName, String name, List<FieldSpec> fields) {
+        String codecName = name + "JsonCodec";
+        code.open("static final class " + codecName + " implements JsonCodec<" + javaName + ">");
+        code.line();
+        codecBody(code, javaName, name, fields);
+        code.close();
+    }
+
+    /**
+     * @param fields the fields of every codec in the file, which need the containers they use
+     */
+    private static void imports(Code code, List<FieldSpec> fields) {
+        code.line("import com.devansh.humanthrift.JsonCodec;");
+        code.line("import com.devansh.humanthrift.JsonReader;");
+        code.line("import com.devansh.humanthrift.TSimpleJSONProtocol;");
+        code.line("import org.apache.thrift.TException;");
+        for (String container : new String[]{"list", "map", "set"}) {
+            if (uses(fields, container)) {
+                code.line("import org.apache.thrift.protocol.T" + capitalize(container) + ";");
+            }
+        }
+        code.line();
+    }
+
+    /**
+     * @param schemaName the name of the struct in the schema, to count the keys it skips under
+     */
+    private void codecBody(Code code, String javaName, String schemaName, List<FieldSpec> fields) {
+        StringBuilder names = new StringBuilder();
+        for (FieldSpec field : fields) {
+            names.append(names.length() == 0 ? "" : ", ").append('"').append(field.name).append('"');
+        }
+        code.line("private static final byte[][] NAMES = JsonReader.names(" + names + ");");
+        for (FieldSpec field : fields) {
+            code.line("private static final byte[] " + constantName(field.name)
+                    + " = TSimpleJSONProtocol.encodeKey(\"" + field.name + "\");");
+        }
+        for (String container : new String[]{"list", "set", "map"}) {
+            if (uses(fields, container)) {
+                String name = container.toUpperCase();
+                String type = "T" + Character.toUpperCase(container.charAt(0)) + container.substring(1);
+                code.line("private static final " + type + " " + name + " = new " + type + "();");
+            }
+        }
+        code.line();
+
+        code.line("@Override");
+        code.open("public " + javaName + " read(JsonReader in) throws TException");
+        code.line(javaName + " value = new " + javaName + "();");
+        code.line("in.expect('{');");
+        code.open("if (!in.consume('}'))");
+        code.open("do");
+        code.open("switch (in.readField(NAMES))");
+        for (int i = 0; i < fields.size(); i++) {
+            FieldSpec field = fields.get(i);
+            // A block for each case, the variables of containers are named by depth
+            code.open("case " + i + ":");
+            readValue(code, field.type, "value." + field.name, 0, false);
+            if (isPrimitive(field.type)) {
+                code.line("value.set" + capitalize(field.name) + "IsSet(true);");
+            }
+            code.line("break;");
+            code.close();
+        }
+        code.line("default:");
+        code.line("    in.skipField(\"" + schemaName + "\");");
+        code.close();
+        code.closeWith("} while (in.consume(','));");
+        code.line("in.expect('}');");
+        code.close();
+        // The read and write of the generated classes check the required fields
+        code.line("value.validate();");
+        code.line("return value;");
+        code.close();
+        code.line();
+
+        code.line("@Override");
+        code.open("public void write(" + javaName + " value, TSimpleJSONProtocol out) throws TException");
+        code.line("value.validate();");
+        code.line("out.writeStructBegin(null);");
+        for (FieldSpec field : fields) {
+            String expression = "value." + field.name;
+            boolean conditional = !isPrimitive(field.type) || field.optional;
+            if (conditional) {
+                code.open(isPrimitive(field.type)
+                        ? "if (value.isSet" + capitalize(field.name) + "())"
+                        : "if (" + expression + " != null)");
+            }
+            code.line("out.writeKey(" + constantName(field.name) + ");");
+            writeValue(code, field.type, expression, 0);
+            if (conditional) {
+                code.close();
+            }
+        }
+        code.line("out.writeStructEnd();");
+        code.close();
+    }
+
+    private static boolean uses(List<FieldSpec> fields, String typeId) {
+        for (FieldSpec field : fields) {
+            if (uses(field.type, typeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean uses(TypeSpec type, String typeId) {
+        return type != null && (type.typeId.equals(typeId) || uses(type.elemType, typeId)
+                || uses(type.keyType, typeId) || uses(type.valueType, typeId));
+    }
+
+    /**
+     * Reads the next value into target.
+     *
+     * @param depth how deep in containers the value is, to name the variables
+     * @param key   if the value is a key of a map or a member of a set, where numbers can be strings
+     */
+    private void readValue(Code code, TypeSpec type, String target, int depth, boolean key) {
+        String quoted = key ? "Quoted" : "";
+        switch (type.typeId) {
+            case "bool":
+                code.line(target + " = in.readBoolean();");
+                return;
+            case "i8":
+                code.line(target + " = in.read" + quoted + "Byte();");
+                return;
+            case "i16":
+                code.line(target + " = in.read" + quoted + "Short();");
+                return;
+            case "i32":
+                if (type.isEnum()) {
+                    code.line(target + " = " + javaClass(type.className) + ".findByValue(in.read" + quoted + "Int());");
+                } else {
+                    code.line(target + " = in.read" + quoted + "Int();");
+                }
+                return;
+            case "i64":
+                code.line(target + " = in.read" + quoted + "Long();");
+                return;
+            case "double":
+                code.line(target + " = in.read" + quoted + "Double();");
+                return;
+            case "string":
+                code.line(target + " = in.readString();");
+                return;
+            case "list":
+                readElements(code, type, "java.util.ArrayList", target, depth);
+                return;
+            case "set":
+                readElements(code, type, "java.util.HashSet", target, depth);
+                return;
+            case "map": {
+                String map = "map" + depth;
+                String k = "key" + depth;
+                String v = "value" + depth;
+                code.line(javaType(type, false) + " " + map + " = new java.util.HashMap<>();");
+                code.line("in.expect('{');");
+                code.open("if (!in.consume('}'))");
+                code.open("do");
+                code.line(javaType(type.keyType, true) + " " + k + ";");
+                readValue(code, type.keyType, k, depth + 1, true);
+                code.line("in.expect(':');");
+                code.line(javaType(type.valueType, true) + " " + v + ";");
+                readValue(code, type.valueType, v, depth + 1, false);
+                code.line(map + ".put(" + k + ", " + v + ");");
+                code.closeWith("} while (in.consume(','));");
+                code.line("in.expect('}');");
+                code.close();
+                code.line(target + " = " + map + ";");
+                return;
+            }
+            default:
+                code.line(target + " = " + codecOf(type.className) + ".INSTANCE.read(in);");
+        }
+    }
+
+    private void readElements(Code code, TypeSpec type, String implementation, String target, int depth) {
+        String collection = "elements" + depth;
+        String element = "element" + depth;
+        boolean set = type.typeId.equals("set");
+        code.line(javaType(type, false) + " " + collection + " = new " + implementation + "<>();");
+        if (set) {
+            // A set can also be sent as the keys of an object
+            code.open("if (in.consume('{'))");
+            code.open("if (!in.consume('}'))");
+            code.open("do");
+            code.line(javaType(type.elemType, true) + " " + element + ";");
+            readValue(code, type.elemType, element, depth + 1, true);
+            code.line("in.expect(':');");
+            code.line("in.skipValue();");
+            code.line(collection + ".add(" + element + ");");
+            code.closeWith("} while (in.consume(','));");
+            code.line("in.expect('}');");
+            code.close();
+            code.closeWith("} else {");
+            code.depth++;
+        }
+        code.line("in.expect('[');");
+        code.open("if (!in.consume(']'))");
+        code.open("do");
+        code.line(javaType(type.elemType, true) + " " + element + ";");
+        readValue(code, type.elemType, element, depth + 1, set);
+        code.line(collection + ".add(" + element + ");");
+        code.closeWith("} while (in.consume(','));");
+        code.line("in.expect(']');");
+        code.close();
+        if (set) {
+            code.close();
+        }
+        code.line(target + " = " + collection + ";");
+    }
+
+    private void writeValue(Code code, TypeSpec type, String expression, int depth) {
+        switch (type.typeId) {
+            case "bool":
+                code.line("out.writeBool(" + expression + ");");
+                return;
+            case "i8":
+                code.line("out.writeByte(" + expression + ");");
+                return;
+            case "i16":
+                code.line("out.writeI16(" + expression + ");");
+                return;
+            case "i32":
+                code.line("out.writeI32(" + expression + (type.isEnum() ? ".getValue()" : "") + ");");
+                return;
+            case "i64":
+                code.line("out.writeI64(" + expression + ");");
+                return;
+            case "double":
+                code.line("out.writeDouble(" + expression + ");");
+                return;
+            case "string":
+                code.line("out.writeString(" + expression + ");");
+                return;
+            case "list":
+            case "set": {
+                boolean list = type.typeId.equals("list");
+                String element = "element" + depth;
+                code.line(list ? "out.writeListBegin(LIST);" : "out.writeSetBegin(SET);");
+                code.open("for (" + javaType(type.elemType, true) + " " + element + " : " + expression + ")");
+                writeValue(code, type.elemType, element, depth + 1);
+                code.close();
+                code.line(list ? "out.writeListEnd();" : "out.writeSetEnd();");
+                return;
+            }
+            case "map": {
+                String entry = "entry" + depth;
+                code.line("out.writeMapBegin(MAP);");
+                code.open("for (java.util.Map.Entry<" + javaType(type.keyType, true) + ", "
+                        + javaType(type.valueType, true) + "> " + entry + " : " + expression + ".entrySet())");
+                writeValue(code, type.keyType, entry + ".getKey()", depth + 1);
+                writeValue(code, type.valueType, entry + ".getValue()", depth + 1);
+                code.close();
+                code.line("out.writeMapEnd();");
+                return;
+            }
+            default:
+                code.line(codecOf(type.className) + ".INSTANCE.write(" + expression + ", out);");
+        }
+    }
+
+    private static void write(Path outputDir, String javaPackage, String className, String source) throws IOException {
+        Path dir = outputDir.resolve(javaPackage.replace('.', '/'));
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(className + ".java"), source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Java source with four spaces of indentation per block.
+     */
+    private static final class Code {
+        private final StringBuilder source = new StringBuilder();
+        int depth;
+
+        void line() {
+            source.append('\n');
+        }
+
+        void line(String line) {
+            for (int i = 0; i < depth; i++) {
+                source.append("    ");
+            }
+            source.append(line).append('\n');
+        }
+
+        void open(String line) {
+            line(line + " {");
+            depth++;
+        }
+
+        void close() {
+            closeWith("}");
+        }
+
+        void closeWith(String line) {
+            depth--;
+            line(line);
+        }
+
+        void append(CharSequence code) {
+            source.append(code);
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import org.apache.thrift.ProcessFunction;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TBaseProcessor;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the methods that have generated {@link JsonCodec}s without the generic protocol path: the
+ * arguments are decoded straight from the bytes of the request and the result is written straight
+ * to the output. Everything else, like messages that are not calls, is handed to the processor as
+ * usual.
+ * <pre>
+ * TProcessor processor = new JsonCodecProcessor&lt;&gt;(new AuthenticationService.Processor&lt;&gt;(handler), handler,
+ *         AuthenticationServiceJsonCodecs.METHODS);
+ * </pre>
+ * Methods without generated codecs, like the ones of a schema loaded at runtime, get codecs made at
+ * runtime once they have been called {@link #threshold(int)} times.
+ * <p>
+ * It serves a single service, so it needs the protocol of a {@link HumanReadableJsonProtocol.Factory}
+ * for that service and turns down one that serves every service. Registered in a
+ * {@link org.apache.thrift.TMultiplexedProcessor} it gets a wrapped protocol and every call takes
+ * the generic path.
+ * <p>
+ * The same exceptions are written as the generated processor would write them.
+ */
+public class JsonCodecProcessor<I> implements TProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonCodecProcessor.class);
+
+    private static final byte[][] ENVELOPE_KEYS = JsonReader.names("method", "id", "arguments");
+    private static final int METHOD = 0;
+    private static final int ID = 1;
+    private static final int ARGUMENTS = 2;
+
+    private static final int DEFAULT_THRESHOLD = 1000;
+
+    private final TBaseProcessor<I> processor;
+    private final I iface;
+    private final Map<String, ? extends ProcessFunction<I, ?>> functions;
+    private final Map<String, JsonCodec.Method<?, ?>> codecs;
+    // The generated class of the arguments of each method, for the codecs made at runtime
+    private final Map<String, Class<?>> argumentTypes = new ConcurrentHashMap<>();
+    private int threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * @param iface  the handler the processor was created with
+     * @param codecs the METHODS of the codecs generated for the service
+     */
+    public JsonCodecProcessor(TBaseProcessor<I> processor, I iface, Map<String, JsonCodec.Method<?, ?>> codecs) {
+        this.processor = processor;
+        this.iface = iface;
+        this.functions = processor.getProcessMapView();
+        this.codecs = codecs;
+    }
+
+    /**
+     * For a service without generated codecs, all of its codecs are made at runtime.
+     */
+    public JsonCodecProcessor(TBaseProcessor<I> processor, I iface) {
+        this(processor, iface, Collections.emptyMap());
+    }
+
+    /**
+     * How many times a struct is used before a codec is made for it at runtime, for the methods
+     * without generated codecs. Until then the calls take the generic path.
+     */
+    public JsonCodecProcessor<I> threshold(int uses) {
+        this.threshold = uses;
+        return this;
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        if (!(in instanceof HumanReadableJsonProtocol) || !(out instanceof HumanReadableJsonProtocol)) {
+            return processor.process(in, out);
+        }
+        HumanReadableJsonProtocol jsonIn = (HumanReadableJsonProtocol) in;
+        HumanReadableJsonProtocol jsonOut = (HumanReadableJsonProtocol) out;
+        if (jsonIn.multiplexed()) {
+            // The methods of the processor are not told apart by service, the codecs would run
+            // whichever method has the name
+            throw new TException("JsonCodecProcessor serves a single service, use a protocol for that service");
+        }
+
+        JsonReader reader = jsonIn.readAhead();
+        String name = null;
+        int seqid = 0;
+        int arguments = -1;
+        try {
+            reader.expect('{');
+            if (!reader.consume('}')) {
+                do {
+                    switch (reader.readField(ENVELOPE_KEYS)) {
+                        case METHOD:
+                            name = reader.readString();
+                            break;
+                        case ID:
+                            seqid = reader.readInt();
+                            break;
+                        case ARGUMENTS:
+                            reader.peek();
+                            arguments = reader.position();
+                            reader.skipValue();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                } while (reader.consume(','));
+                reader.expect('}');
+            }
+        } catch (TProtocolException e) {
+            // Let the processor report it the usual way
+            return processor.process(in, out);
+        }
+
+        // Both are looked up by the name of the method, so they are for the same generated classes
+        @SuppressWarnings("unchecked")
+        ProcessFunction<I, TBase<?, ?>> function = name == null || arguments < 0
+                ? null : (ProcessFunction<I, TBase<?, ?>>) functions.get(name);
+        if (function == null) {
+            return processor.process(in, out);
+        }
+        @SuppressWarnings("unchecked")
+        JsonCodec.Method<TBase<?, ?>, TBase<?, ?>> codec =
+                (JsonCodec.Method<TBase<?, ?>, TBase<?, ?>>) codecs.get(name);
+        MethodInfo method = codec == null ? jsonIn.method(name) : null;
+        JsonCodec<TBase<?, ?>> argumentsCodec = codec != null ? codec.arguments : method == null ? null
+                : RuntimeJsonCodec.forStruct(method.arguments, argumentTypes.computeIfAbsent(name,
+                        n -> function.getEmptyArgsInstance().getClass()), threshold);
+        if (argumentsCodec == null) {
+            return processor.process(in, out);
+        }
+        jsonIn.consumeAhead();
+
+        TBase<?, ?> args;
+        try {
+            reader.position(arguments);
+            args = argumentsCodec.read(reader);
+        } catch (TProtocolException e) {
+            writeException(jsonOut, name, seqid, TApplicationException.PROTOCOL_ERROR, e.getMessage());
+            return true;
+        }
+
+        TBase<?, ?> result;
+        try {
+            result = function.getResult(iface, args);
+        } catch (TException e) {
+            log.error("Internal error processing " + name, e);
+            writeException(jsonOut, name, seqid, TApplicationException.INTERNAL_ERROR,
+                    "Internal error processing " + name);
+            return true;
+        }
+
+        // Null for a oneway method
+        if (result != null) {
+            JsonCodec<TBase<?, ?>> resultCodec = codec != null ? codec.result
+                    : RuntimeJsonCodec.forStruct(method.result, result.getClass(), threshold);
+            jsonOut.writeMessageBegin(new TMessage(name, TMessageType.REPLY, seqid));
+            try {
+                if (resultCodec != null) {
+                    resultCodec.write(result, jsonOut.output());
+                } else {
+                    result.write(jsonOut);
+                }
+            } catch (TException | RuntimeException e) {
+                // Like a result that does not validate, the half written message is dropped
+                jsonOut.output().reset();
+                throw e;
+            }
+            jsonOut.writeMessageEnd();
+            jsonOut.getTransport().flush();
+        }
+        return true;
+    }
+
+    private static void writeException(TProtocol out, String name, int seqid, int type,
+                                       String message) throws TException {
+        out.writeMessageBegin(new TMessage(name, TMessageType.EXCEPTION, seqid));
+        new TApplicationException(type, message).write(out);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+    }
+}
@@ -0,0 +1,115 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.util.Arrays;
+
+/**
+ * Splits JSON objects sent back to back on a transport, or arrays of them for a batch. Each one
+ * ends at the bracket that closes it, so nothing past the end of a message is waited for, and
+ * whatever was read past it is kept for the next one. Whitespace between objects, like the newline the protocol writes after every
+ * message, is skipped.
+ */
+class JsonFramer {
+
+    private byte[] buf = new byte[1024];
+    // The bytes that were read and not handed out yet are from start to end
+    private int start;
+    private int end;
+    private int last;
+
+    // Where the scan for the end of the current object is
+    private int scan;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * @return where the object returned by the last {@link #next(TTransport)} starts in the buffer
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * Reads until there is a whole object. The one returned before is dropped, so it must not be
+     * in use any more.
+     *
+     * @return the length of the object, which starts at {@link #start()}
+     */
+    int next(TTransport transport) throws TTransportException, TProtocolException {
+        start += last;
+        last = 0;
+        scan = start;
+
+        while (true) {
+            int length = scan();
+            if (length > 0) {
+                last = length;
+                return length;
+            }
+            fill(transport);
+        }
+    }
+
+    /**
+     * @return the length of the object once it is complete, or 0 if more bytes are needed
+     */
+    private int scan() throws TProtocolException {
+        for (; scan < end; scan++) {
+            byte b = buf[scan];
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (depth == 0) {
+                if (b == '{' || b == '[') {
+                    depth = 1;
+                } else if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                    start = scan + 1;
+                } else {
+                    throw new TProtocolException(TProtocolException.INVALID_DATA,
+                            new Exception("Expected '{' or '[' got '" + (char) (b & 0xff) + "' between messages"));
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                scan++;
+                return scan - start;
+            }
+        }
+        return 0;
+    }
+
+    private void fill(TTransport transport) throws TTransportException {
+        if (end == buf.length) {
+            // Move what is left to the front, or grow if the message takes up the whole buffer
+            int remaining = end - start;
+            byte[] target = remaining > buf.length / 2 ? Arrays.copyOf(buf, buf.length * 2) : buf;
+            System.arraycopy(buf, start, target, 0, remaining);
+            buf = target;
+            scan -= start;
+            end = remaining;
+            start = 0;
+        }
+
+        int amt = transport.read(buf, end, buf.length - end);
+        if (amt <= 0) {
+            throw new TTransportException(TTransportException.END_OF_FILE,
+                    end == start ? "No more messages" : "Message is incomplete");
+        }
+        end += amt;
+    }
+}
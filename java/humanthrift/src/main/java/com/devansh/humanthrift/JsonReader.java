@@ -0,0 +1,669 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.protocol.TProtocolException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pull reader over UTF-8 JSON bytes. It never builds a tree, the caller asks for the next
+ * token it expects (a string, a number, a bracket) and the reader moves over the bytes.
+ * <p>
+ * The bytes are not copied, so they must not change while the reader is in use.
+ * <p>
+ * It is public for the codecs written by {@link JsonCodecGenerator}, nothing else should need it.
+ */
+public final class JsonReader {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // Every long below it is exact as a double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private char[] chars = new char[64];
+    // Where the key last read by readField is, for the error when it is not a field
+    private int keyStart;
+    private int keyEnd;
+    // Or the key itself when it had escapes
+    private String escapedKey;
+    // Null unless keys that are not fields are skipped
+    private SkippedFields skippedFields;
+
+    JsonReader() {
+    }
+
+    /**
+     * @return the names of the fields of a struct as {@link #readField(byte[][])} expects them
+     */
+    public static byte[][] names(String... names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    void skippedFields(SkippedFields skippedFields) {
+        this.skippedFields = skippedFields;
+    }
+
+    void reset(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    void position(int pos) {
+        this.pos = pos;
+    }
+
+    /**
+     * @return the next non whitespace byte without consuming it, or -1 at the end of the input
+     */
+    public int peek() {
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b & 0xff;
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    public void expect(char c) throws TProtocolException {
+        if (peek() != c) {
+            throw unexpected("'" + c + "'");
+        }
+        pos++;
+    }
+
+    public boolean consume(char c) {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean readBoolean() throws TProtocolException {
+        int c = peek();
+        if (c == 't' && matches("true")) {
+            pos += 4;
+            return true;
+        } else if (c == 'f' && matches("false")) {
+            pos += 5;
+            return false;
+        }
+        throw unexpected("bool");
+    }
+
+    public long readLong() throws TProtocolException {
+        return readInteger(Long.MIN_VALUE, Long.MAX_VALUE, "i64");
+    }
+
+    public int readInt() throws TProtocolException {
+        return (int) readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE, "i32");
+    }
+
+    public short readShort() throws TProtocolException {
+        return (short) readInteger(Short.MIN_VALUE, Short.MAX_VALUE, "i16");
+    }
+
+    public byte readByte() throws TProtocolException {
+        return (byte) readInteger(Byte.MIN_VALUE, Byte.MAX_VALUE, "i8");
+    }
+
+    /**
+     * Reads the digits straight into a long, failing if the number does not fit in the type
+     * instead of wrapping around. Numbers with a fraction or an exponent are rare enough to be
+     * parsed as a {@link BigDecimal}, which keeps every digit of a large i64 and drops the fraction.
+     */
+    private long readInteger(long min, long max, String type) throws TProtocolException {
+        int start = numberStart();
+        int end = numberEnd();
+        boolean negative = buf[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            return readIntegerSlow(start, end, min, max, type);
+        }
+
+        // Negative while adding up, since Long.MIN_VALUE has no positive counterpart
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return readIntegerSlow(start, end, min, max, type);
+            }
+            if (value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit) {
+                throw outOfRange(start, end, type);
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw outOfRange(start, end, type);
+            }
+            value = -value;
+        }
+        if (value < min || value > max) {
+            throw outOfRange(start, end, type);
+        }
+        return value;
+    }
+
+    private long readIntegerSlow(int start, int end, long min, long max, String type) throws TProtocolException {
+        BigDecimal number;
+        try {
+            number = new BigDecimal(new String(buf, start, end - start, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            throw invalidNumber(start, end);
+        }
+        // Both checked before making an integer of it, which for 1e999999999 or 1e-999999999
+        // would take a while. The first is the number of digits before the point.
+        if (number.precision() - number.scale() > 19) {
+            throw outOfRange(start, end, type);
+        }
+        if (number.precision() - number.scale() <= 0) {
+            return 0;
+        }
+        BigInteger integer = number.toBigInteger();
+        if (integer.bitLength() > 63 || integer.longValue() < min || integer.longValue() > max) {
+            throw outOfRange(start, end, type);
+        }
+        return integer.longValue();
+    }
+
+    private TProtocolException outOfRange(int start, int end, String type) {
+        return new TProtocolException(TProtocolException.INVALID_DATA, new Exception("Number "
+                + new String(buf, start, end - start, StandardCharsets.ISO_8859_1) + " does not fit in " + type
+                + " at offset " + start));
+    }
+
+    private TProtocolException invalidNumber(int start, int end) {
+        return new TProtocolException(TProtocolException.INVALID_DATA, new Exception("Invalid number "
+                + new String(buf, start, end - start, StandardCharsets.ISO_8859_1) + " at offset " + start));
+    }
+
+    /**
+     * Numbers with at most 15 or so digits and a small exponent, which is nearly all of them, are
+     * parsed exactly with a single multiplication or division of two doubles. The rest are left to
+     * {@link Double#parseDouble(String)}.
+     */
+    public double readDouble() throws TProtocolException {
+        int start = numberStart();
+        int end = numberEnd();
+        boolean negative = buf[start] == '-';
+        int i = negative ? start + 1 : start;
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = i;
+        for (; i < end && buf[i] >= '0' && buf[i] <= '9'; i++) {
+            mantissa = mantissa * 10 + (buf[i] - '0');
+            if (mantissa >= MAX_EXACT_MANTISSA) {
+                return readDoubleSlow(start, end);
+            }
+        }
+        if (i == digits) {
+            return readDoubleSlow(start, end);
+        }
+        if (i < end && buf[i] == '.') {
+            digits = ++i;
+            for (; i < end && buf[i] >= '0' && buf[i] <= '9'; i++) {
+                mantissa = mantissa * 10 + (buf[i] - '0');
+                exponent--;
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return readDoubleSlow(start, end);
+                }
+            }
+            if (i == digits) {
+                return readDoubleSlow(start, end);
+            }
+        }
+        if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < end && buf[i] == '-';
+            if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+                i++;
+            }
+            digits = i;
+            int explicit = 0;
+            for (; i < end && buf[i] >= '0' && buf[i] <= '9'; i++) {
+                explicit = explicit * 10 + (buf[i] - '0');
+                if (explicit > POWERS_OF_TEN.length * 2) {
+                    return readDoubleSlow(start, end);
+                }
+            }
+            if (i == digits) {
+                return readDoubleSlow(start, end);
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (i != end || exponent < -(POWERS_OF_TEN.length - 1) || exponent > POWERS_OF_TEN.length - 1) {
+            return readDoubleSlow(start, end);
+        }
+
+        // Both are exact as doubles, so the result is rounded once and is the closest double
+        double value = exponent < 0
+                ? (double) mantissa / POWERS_OF_TEN[-exponent]
+                : (double) mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private double readDoubleSlow(int start, int end) throws TProtocolException {
+        double value;
+        try {
+            value = Double.parseDouble(new String(buf, start, end - start, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            throw invalidNumber(start, end);
+        }
+        // Like 1e400, which JSON has no way of writing back
+        if (Double.isInfinite(value)) {
+            throw outOfRange(start, end, "double");
+        }
+        return value;
+    }
+
+    /**
+     * Reads a number that is written as a string, like the keys of a map or the members of a set.
+     */
+    public long readQuotedLong() throws TProtocolException {
+        return readQuotedInteger(Long.MIN_VALUE, Long.MAX_VALUE, "i64");
+    }
+
+    public int readQuotedInt() throws TProtocolException {
+        return (int) readQuotedInteger(Integer.MIN_VALUE, Integer.MAX_VALUE, "i32");
+    }
+
+    public short readQuotedShort() throws TProtocolException {
+        return (short) readQuotedInteger(Short.MIN_VALUE, Short.MAX_VALUE, "i16");
+    }
+
+    public byte readQuotedByte() throws TProtocolException {
+        return (byte) readQuotedInteger(Byte.MIN_VALUE, Byte.MAX_VALUE, "i8");
+    }
+
+    private long readQuotedInteger(long min, long max, String type) throws TProtocolException {
+        if (peek() != '"') {
+            return readInteger(min, max, type);
+        }
+        pos++;
+        long value = readInteger(min, max, type);
+        expect('"');
+        return value;
+    }
+
+    public double readQuotedDouble() throws TProtocolException {
+        if (peek() != '"') {
+            return readDouble();
+        }
+        pos++;
+        double value = readDouble();
+        expect('"');
+        return value;
+    }
+
+    public String readString() throws TProtocolException {
+        expect('"');
+        int start = pos;
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == '"') {
+                String s = new String(buf, start, pos - start, StandardCharsets.ISO_8859_1);
+                pos++;
+                return s;
+            } else if (b == '\\' || b < 0) {
+                return readStringSlow(start);
+            }
+            pos++;
+        }
+        throw unexpected("'\"'");
+    }
+
+    /**
+     * Reads the key of the next member of an object and the colon after it, without making a
+     * string of it unless it has escapes.
+     *
+     * @return the index of the key in names, or -1 if it is none of them
+     */
+    public int readField(byte[][] names) throws TProtocolException {
+        if (peek() != '"') {
+            throw unexpected("'\"'");
+        }
+        keyStart = pos + 1;
+        escapedKey = null;
+        int end = keyStart;
+        while (end < limit && buf[end] != '"') {
+            if (buf[end] == '\\') {
+                // Rare enough to not bother comparing bytes
+                String key = readString();
+                escapedKey = key;
+                expect(':');
+                for (int i = 0; i < names.length; i++) {
+                    if (key.equals(new String(names[i], StandardCharsets.UTF_8))) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            end++;
+        }
+        if (end == limit) {
+            throw unexpected("'\"'");
+        }
+        keyEnd = end;
+        pos = end + 1;
+        expect(':');
+
+        int length = end - keyStart;
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i];
+            if (name.length == length && regionMatches(name, keyStart)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(byte[] name, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (buf[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the error for a key read by {@link #readField(byte[][])} that is not a field
+     */
+    public TProtocolException unexpectedField() {
+        return new TProtocolException(TProtocolException.INVALID_DATA, new Exception("Unexpected key " + key()));
+    }
+
+    /**
+     * For a key read by {@link #readField(byte[][])} that is not a field. Moves over its value if
+     * the protocol skips unknown fields and fails otherwise.
+     *
+     * @param struct the name of the struct as in the schema, to count the skipped key under
+     */
+    public void skipField(String struct) throws TProtocolException {
+        if (skippedFields == null) {
+            throw unexpectedField();
+        }
+        skippedFields.add(struct, key());
+        skipValue();
+    }
+
+    private String key() {
+        return escapedKey != null
+                ? escapedKey : new String(buf, keyStart, keyEnd - keyStart, StandardCharsets.UTF_8);
+    }
+
+    private String readStringSlow(int start) throws TProtocolException {
+        pos = start;
+        int len = 0;
+        while (true) {
+            if (pos >= limit) {
+                throw unexpected("'\"'");
+            }
+            if (len + 2 > chars.length) {
+                char[] grown = new char[chars.length * 2];
+                System.arraycopy(chars, 0, grown, 0, len);
+                chars = grown;
+            }
+
+            int b = buf[pos++];
+            if (b == '"') {
+                return new String(chars, 0, len);
+            } else if (b == '\\') {
+                chars[len++] = readEscape();
+            } else if (b >= 0) {
+                chars[len++] = (char) b;
+            } else {
+                len = readUtf8(b, len);
+            }
+        }
+    }
+
+    private char readEscape() throws TProtocolException {
+        if (pos >= limit) {
+            throw unexpected("escape");
+        }
+        byte b = buf[pos++];
+        switch (b) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) b;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (pos + 4 > limit) {
+                    throw unexpected("unicode escape");
+                }
+                int c = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(buf[pos++], 16);
+                    if (digit < 0) {
+                        throw unexpected("hex digit");
+                    }
+                    c = (c << 4) | digit;
+                }
+                return (char) c;
+            default:
+                pos--;
+                throw unexpected("escape");
+        }
+    }
+
+    private int readUtf8(int b, int len) throws TProtocolException {
+        int extra;
+        int c;
+        if ((b & 0xe0) == 0xc0) {
+            extra = 1;
+            c = b & 0x1f;
+        } else if ((b & 0xf0) == 0xe0) {
+            extra = 2;
+            c = b & 0x0f;
+        } else if ((b & 0xf8) == 0xf0) {
+            extra = 3;
+            c = b & 0x07;
+        } else {
+            pos--;
+            throw unexpected("UTF-8");
+        }
+
+        if (pos + extra > limit) {
+            throw unexpected("UTF-8");
+        }
+        for (int i = 0; i < extra; i++) {
+            c = (c << 6) | (buf[pos++] & 0x3f);
+        }
+
+        if (c >= 0x10000) {
+            chars[len++] = Character.highSurrogate(c);
+            chars[len++] = Character.lowSurrogate(c);
+        } else {
+            chars[len++] = (char) c;
+        }
+        return len;
+    }
+
+    /**
+     * Moves over the next value, whatever it is, without decoding it.
+     */
+    public void skipValue() throws TProtocolException {
+        int c = peek();
+        switch (c) {
+            case '"':
+                skipString();
+                break;
+            case '{':
+            case '[':
+                skipContainer();
+                break;
+            case 't':
+            case 'f':
+                readBoolean();
+                break;
+            case 'n':
+                if (!matches("null")) {
+                    throw unexpected("value");
+                }
+                pos += 4;
+                break;
+            default:
+                int start = pos;
+                while (pos < limit && isNumberByte(buf[pos])) {
+                    pos++;
+                }
+                if (start == pos) {
+                    throw unexpected("value");
+                }
+        }
+    }
+
+    private void skipString() throws TProtocolException {
+        pos++;
+        while (pos < limit) {
+            byte b = buf[pos++];
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                pos++;
+            }
+        }
+        throw unexpected("'\"'");
+    }
+
+    private void skipContainer() throws TProtocolException {
+        int depth = 0;
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == '"') {
+                skipString();
+                continue;
+            }
+            pos++;
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw unexpected("end of container");
+    }
+
+    /**
+     * Counts the values of the array or the members of the object that was just opened, and those
+     * of every array and object inside it, leaving the position where it was. Only the brackets,
+     * commas and strings are looked at, the values are checked when they are read.
+     */
+    void count(ContainerSizes sizes) throws TProtocolException {
+        int start = pos;
+        sizes.clear();
+        sizes.push(pos);
+        // True until the first byte of the next value in the innermost container
+        boolean pending = true;
+        while (pos < limit) {
+            byte b = buf[pos];
+            switch (b) {
+                case ' ':
+                case '\n':
+                case '\r':
+                case '\t':
+                case ':':
+                    pos++;
+                    continue;
+                case ',':
+                    pos++;
+                    pending = true;
+                    continue;
+                case '}':
+                case ']':
+                    pos++;
+                    if (sizes.pop()) {
+                        pos = start;
+                        return;
+                    }
+                    pending = false;
+                    continue;
+            }
+            if (pending) {
+                sizes.increment();
+                pending = false;
+            }
+            if (b == '"') {
+                skipString();
+            } else if (b == '{' || b == '[') {
+                pos++;
+                sizes.push(pos);
+                pending = true;
+            } else {
+                pos++;
+            }
+        }
+        throw unexpected("end of container");
+    }
+
+    TProtocolException unexpected(String expected) {
+        String got = pos < limit ? "'" + (char) (buf[pos] & 0xff) + "'" : "end of input";
+        return new TProtocolException(TProtocolException.INVALID_DATA,
+                new Exception("Expected " + expected + " got " + got + " at offset " + pos));
+    }
+
+    private int numberStart() throws TProtocolException {
+        int c = peek();
+        if (c != '-' && (c < '0' || c > '9')) {
+            throw unexpected("number");
+        }
+        return pos;
+    }
+
+    /**
+     * Moves past the bytes a number can have and returns where they end.
+     */
+    private int numberEnd() {
+        while (pos < limit && isNumberByte(buf[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private boolean matches(String literal) {
+        if (pos + literal.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (buf[pos + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+}
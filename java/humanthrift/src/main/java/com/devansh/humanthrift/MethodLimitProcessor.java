@@ -0,0 +1,116 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolDecorator;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many calls of a method run at the same time, for handlers that call something that
+ * can only take so many calls at once. A call over the limit waits for one of the others to finish
+ * and gets an exception back if that takes longer than the timeout.
+ * <p>
+ * Waiting blocks the thread, so this is meant for an {@link HttpGateway} with
+ * {@link HttpGateway#virtualThreads(boolean)} where a blocked call costs next to nothing.
+ * <pre>
+ * TProcessor processor = new MethodLimitProcessor(new AuthenticationService.Processor&lt;&gt;(handler))
+ *         .limit("login", 200);
+ * </pre>
+ */
+public class MethodLimitProcessor implements TProcessor {
+
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    private final TProcessor processor;
+    private final Map<String, Semaphore> limits = new HashMap<>();
+    private long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+
+    public MethodLimitProcessor(TProcessor processor) {
+        this.processor = processor;
+    }
+
+    /**
+     * Set the limits before the processor is used, they are not meant to change while it runs.
+     *
+     * @param method the name of the method, as "Service:method" with a multiplexed
+     *               {@link HumanReadableJsonProtocol.Factory}
+     * @param calls  how many calls of the method can run at the same time
+     */
+    public MethodLimitProcessor limit(String method, int calls) {
+        limits.put(method, new Semaphore(calls, true));
+        return this;
+    }
+
+    /**
+     * How long a call waits to run before it gets an exception back.
+     */
+    public MethodLimitProcessor timeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        TMessage message = in.readMessageBegin();
+        Semaphore limit = limits.get(message.name);
+        if (limit == null) {
+            return processor.process(new StoredMessageProtocol(in, message), out);
+        }
+
+        boolean acquired;
+        try {
+            acquired = limit.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            TProtocolUtil.skip(in, TType.STRUCT);
+            in.readMessageEnd();
+            if (message.type != TMessageType.ONEWAY) {
+                TApplicationException x = new TApplicationException(TApplicationException.INTERNAL_ERROR,
+                        "Too many calls to " + message.name);
+                out.writeMessageBegin(new TMessage(message.name, TMessageType.EXCEPTION, message.seqid));
+                x.write(out);
+                out.writeMessageEnd();
+                out.getTransport().flush();
+            }
+            return true;
+        }
+
+        try {
+            return processor.process(new StoredMessageProtocol(in, message), out);
+        } finally {
+            limit.release();
+        }
+    }
+
+    /**
+     * Hands the message that was already read to the processor, the same as
+     * {@link org.apache.thrift.TMultiplexedProcessor} does.
+     */
+    private static class StoredMessageProtocol extends TProtocolDecorator {
+
+        private final TMessage message;
+
+        StoredMessageProtocol(TProtocol protocol, TMessage message) {
+            super(protocol);
+            this.message = message;
+        }
+
+        @Override
+        public TMessage readMessageBegin() {
+            return message;
+        }
+    }
+}
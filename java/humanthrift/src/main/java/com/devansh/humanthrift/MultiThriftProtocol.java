@@ -9,6 +9,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * This class allows you to multiplex between different kinds of protocol.
@@ -32,6 +35,15 @@ import java.nio.ByteBuffer;
  * 4{"m":"askMe","r":{"success":"42"}}
  * <p>
  * (notice '4' upfront in both Request and Response)
+ * <p>
+ * The protocol for each type is created the first time it is used and then reused for every message
+ * on the same transport, and the factories for them are shared by all the protocols of a {@link Factory}.
+ * <p>
+ * With {@link Factory#sniffing(boolean)} the type does not have to be sent at all. The first byte of
+ * the first message tells the protocols apart (0x80 Binary, 0x82 Compact, '[' Thrift JSON and '{'
+ * Human JSON) so plain Thrift clients can connect, and the choice is kept for the rest of the
+ * connection. A '1' to '4' up front still works, and then it is expected before every message
+ * and written before every response like before.
  */
 public class MultiThriftProtocol extends TProtocol {
 
@@ -39,83 +51,195 @@ public class MultiThriftProtocol extends TProtocol {
 
     public static class Factory implements TProtocolFactory {
 
-        private final JSONArray metadata;
-        private final String serviceName;
+        // In the order of the protocol types, so Binary is at 0 and Human JSON at 3
+        private final TProtocolFactory[] factories;
+        private boolean sniffing;
+        // What was detected on each transport, so the protocols for reading and writing on the
+        // same transport agree. It does not hold on to the transport so the keys can go away.
+        private final Map<TTransport, Connection> connections =
+                Collections.synchronizedMap(new WeakHashMap<TTransport, Connection>());
 
         public Factory(JSONArray metadata, String serviceName) {
-            this.metadata = metadata;
-            this.serviceName = serviceName;
+            this(new HumanReadableJsonProtocol.Factory(metadata, serviceName));
         }
 
+        /**
+         * @param jsonFactory used for Human JSON, so the schema and the options of the
+         *                    {@link HumanReadableJsonProtocol} can be shared with other servers
+         */
+        public Factory(HumanReadableJsonProtocol.Factory jsonFactory) {
+            this.factories = new TProtocolFactory[]{
+                    new TBinaryProtocol.Factory(),
+                    new TCompactProtocol.Factory(),
+                    new TJSONProtocol.Factory(),
+                    jsonFactory
+            };
+        }
+
+        /**
+         * When sniffing, the protocol is detected from the first byte of the first message instead
+         * of requiring a '1' to '4' in front of it. Servers should use the same transport for
+         * reading and writing a connection, like the Thrift servers do, so the response is written
+         * with the protocol that was detected.
+         */
+        public Factory sniffing(boolean sniffing) {
+            this.sniffing = sniffing;
+            return this;
+        }
 
         @Override
         public TProtocol getProtocol(TTransport trans) {
-            return new MultiThriftProtocol(trans, metadata, serviceName);
+            return new MultiThriftProtocol(trans, this);
+        }
+
+        private Connection connection(TTransport trans) {
+            synchronized (connections) {
+                Connection connection = connections.get(trans);
+                if (connection == null) {
+                    connection = new Connection();
+                    connections.put(trans, connection);
+                }
+                return connection;
+            }
         }
     }
 
+    private static class Connection {
+        // The index of the protocol, or -1 until the first message is read
+        int index = -1;
+        // Whether the type comes as a '1' to '4' before every message
+        boolean prefixed;
+    }
+
     private static final String BINARY_IDX = "1";
     private static final String COMPACT_IDX = "2";
     private static final String THRIFT_JSON_IDX = "3";
     private static final String JSON_IDX = "4";
+    private static final String[] PROTOCOL_TYPES = {BINARY_IDX, COMPACT_IDX, THRIFT_JSON_IDX, JSON_IDX};
 
+    private final Factory factory;
+    // The protocols created for this transport so far, indexed like the factories
+    private final TProtocol[] delegates = new TProtocol[PROTOCOL_TYPES.length];
+    private final byte[] typeByte = new byte[1];
     private TProtocol delegatedProtocol;
-    private final String serviceName;
-    private final JSONArray metadata;
+    // Only set when sniffing
+    private final Connection connection;
+    private final PushbackTransport pushback;
 
     public MultiThriftProtocol(TTransport transport, JSONArray metadata, String serviceName) {
+        this(transport, new Factory(metadata, serviceName));
+    }
+
+    public MultiThriftProtocol(TTransport transport, Factory factory) {
         super(transport);
-        this.metadata = metadata;
-        this.serviceName = serviceName;
+        this.factory = factory;
+        if (factory.sniffing) {
+            this.connection = factory.connection(transport);
+            this.pushback = new PushbackTransport(transport);
+        } else {
+            this.connection = null;
+            this.pushback = null;
+        }
     }
 
     public void setProtocolType(String protocolType) throws TException {
-        delegatedProtocol = getDelegatedProtocol(protocolType);
-        trans_.write(protocolType.getBytes());
+        int index = indexOf(protocolType);
+        delegatedProtocol = getDelegatedProtocol(index);
+        typeByte[0] = (byte) PROTOCOL_TYPES[index].charAt(0);
+        trans_.write(typeByte, 0, 1);
     }
 
     public String readProtocolTypeFromTransport() throws TException {
         // Default to Binary
         String delegatedProtocolType = "";
         try {
-            byte[] b = new byte[1];
-            trans_.read(b, 0, 1);
-            delegatedProtocolType = new String(b);
-            delegatedProtocol = getDelegatedProtocol(delegatedProtocolType);
+            trans_.read(typeByte, 0, 1);
+            int index = typeByte[0] - BINARY_IDX.charAt(0);
+            if (index < 0 || index >= PROTOCOL_TYPES.length) {
+                throw new TTransportException("Unknown type: " + (char) typeByte[0]);
+            }
+            delegatedProtocolType = PROTOCOL_TYPES[index];
+            delegatedProtocol = getDelegatedProtocol(index);
         } catch (TTransportException e) {
             log.error("Error Getting Multi Protocol", e);
         }
         return delegatedProtocolType;
     }
 
-    private TProtocol getDelegatedProtocol(String delegatedProtocolType) throws TTransportException {
-        TProtocolFactory protocolFactory = null;
+    private static int indexOf(String delegatedProtocolType) throws TTransportException {
         switch (delegatedProtocolType) {
             case BINARY_IDX:
-                protocolFactory = new TBinaryProtocol.Factory();
-                break;
+                return 0;
 
             case COMPACT_IDX:
-                protocolFactory = new TCompactProtocol.Factory();
-                break;
+                return 1;
 
             case THRIFT_JSON_IDX:
-                protocolFactory = new TJSONProtocol.Factory();
-                break;
+                return 2;
 
             case JSON_IDX:
-                protocolFactory = new HumanReadableJsonProtocol.Factory(metadata, serviceName);
-                break;
+                return 3;
 
             default:
                 throw new TTransportException("Unknown type: " + delegatedProtocolType);
         }
+    }
+
+    /**
+     * Looks at the first byte of a message to find out which protocol it is in. A protocol type in
+     * front of the message is read, anything else is left for the protocol to read.
+     */
+    private void detectProtocolType() throws TException {
+        int b = pushback.peekByte() & 0xff;
+        int index;
+        switch (b) {
+            case 0x80:
+                index = 0;
+                break;
 
-        return protocolFactory.getProtocol(trans_);
+            case 0x82:
+                index = 1;
+                break;
+
+            case '[':
+                index = 2;
+                break;
+
+            case '{':
+                index = 3;
+                break;
+
+            default:
+                index = b - BINARY_IDX.charAt(0);
+                if (index < 0 || index >= PROTOCOL_TYPES.length) {
+                    throw new TProtocolException(TProtocolException.INVALID_DATA,
+                            "Unable to detect the protocol from byte 0x" + Integer.toHexString(b));
+                }
+                pushback.read(typeByte, 0, 1);
+                connection.prefixed = true;
+        }
+        connection.index = index;
+        delegatedProtocol = getDelegatedProtocol(index);
+    }
+
+    private TProtocol getDelegatedProtocol(int index) {
+        TProtocol protocol = delegates[index];
+        if (protocol == null) {
+            protocol = factory.factories[index].getProtocol(pushback != null ? pushback : trans_);
+            delegates[index] = protocol;
+        }
+        return protocol;
     }
 
     @Override
     public void writeMessageBegin(TMessage message) throws TException {
+        if (connection != null && connection.index >= 0) {
+            if (connection.prefixed) {
+                setProtocolType(PROTOCOL_TYPES[connection.index]);
+            } else {
+                delegatedProtocol = getDelegatedProtocol(connection.index);
+            }
+        }
         delegatedProtocol.writeMessageBegin(message);
     }
 
@@ -131,7 +255,7 @@ public class MultiThriftProtocol extends TProtocol {
 
     @Override
     public void writeStructEnd() throws TException {
-        delegatedProtocol.writeMessageEnd();
+        delegatedProtocol.writeStructEnd();
     }
 
     @Override
@@ -221,6 +345,14 @@ public class MultiThriftProtocol extends TProtocol {
 
     @Override
     public TMessage readMessageBegin() throws TException {
+        if (connection != null) {
+            if (connection.index < 0 || connection.prefixed) {
+                detectProtocolType();
+            } else {
+                // Detected by another protocol made for the same transport
+                delegatedProtocol = getDelegatedProtocol(connection.index);
+            }
+        }
         return delegatedProtocol.readMessageBegin();
     }
 
@@ -318,4 +450,88 @@ public class MultiThriftProtocol extends TProtocol {
     public ByteBuffer readBinary() throws TException {
         return delegatedProtocol.readBinary();
     }
+
+    /**
+     * Lets a byte be looked at before the protocol reads it.
+     */
+    private static class PushbackTransport extends TTransport {
+
+        private final TTransport transport;
+        private final byte[] peeked = new byte[1];
+        private boolean hasPeeked;
+
+        PushbackTransport(TTransport transport) {
+            this.transport = transport;
+        }
+
+        byte peekByte() throws TTransportException {
+            if (!hasPeeked) {
+                transport.readAll(peeked, 0, 1);
+                hasPeeked = true;
+            }
+            return peeked[0];
+        }
+
+        @Override
+        public boolean isOpen() {
+            return transport.isOpen();
+        }
+
+        @Override
+        public boolean peek() {
+            return hasPeeked || transport.peek();
+        }
+
+        @Override
+        public void open() throws TTransportException {
+            transport.open();
+        }
+
+        @Override
+        public void close() {
+            transport.close();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws TTransportException {
+            if (hasPeeked && len > 0) {
+                buf[off] = peeked[0];
+                hasPeeked = false;
+                return 1;
+            }
+            return transport.read(buf, off, len);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws TTransportException {
+            transport.write(buf, off, len);
+        }
+
+        @Override
+        public void flush() throws TTransportException {
+            transport.flush();
+        }
+
+        // The buffer of the transport can only be used directly once the peeked byte was read
+
+        @Override
+        public byte[] getBuffer() {
+            return hasPeeked ? null : transport.getBuffer();
+        }
+
+        @Override
+        public int getBufferPosition() {
+            return hasPeeked ? 0 : transport.getBufferPosition();
+        }
+
+        @Override
+        public int getBytesRemainingInBuffer() {
+            return hasPeeked ? -1 : transport.getBytesRemainingInBuffer();
+        }
+
+        @Override
+        public void consumeBuffer(int len) {
+            transport.consumeBuffer(len);
+        }
+    }
 }
@@ -0,0 +1,266 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import com.devansh.humanthrift.CompiledSchema.ServiceInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Decodes the arguments of a call onto the {@link TokenTape} straight from the bytes, for a protocol
+ * that is not streaming. It follows the plan the schema compiled for each struct: the names of
+ * its fields as bytes to match the keys against, the kind of JSON value each field takes, and
+ * the struct of each field that is one. No {@link org.json.JSONObject} is made and no key is
+ * turned into a string.
+ * <p>
+ * Anything the plan does not cover, like a key that is not a field, a value of the wrong kind,
+ * a set written as an object or a result, makes it give up. The message is then parsed as a
+ * {@link org.json.JSONObject} as before, which accepts and reports the same things it always has.
+ */
+final class PlannedDecoder {
+
+    private static final TField STOP_FIELD = new TField("", TType.STOP, (short) -1);
+
+    // The keys of a message, in the order of the constants after it
+    private static final byte[][] MESSAGE_KEYS = JsonReader.names("method", "service", "id", "arguments");
+    private static final int METHOD = 0;
+    private static final int SERVICE = 1;
+    private static final int ID = 2;
+    private static final int ARGUMENTS = 3;
+
+    private final JsonReader reader = new JsonReader();
+
+    /**
+     * @param service the service of the endpoint, or null to find it by the message for an endpoint
+     *                that serves every service in the schema
+     * @return the message, with its arguments on the tape, or null if the plan does not cover it
+     * and the tape is left for the caller to reset
+     */
+    TMessage readCall(byte[] buf, int offset, int length, CompiledSchema schema, String service, TokenTape tape) {
+        reader.reset(buf, offset, length);
+        try {
+            String name = null;
+            String serviceName = null;
+            int id = 0;
+            int arguments = -1;
+
+            reader.expect('{');
+            if (reader.consume('}')) {
+                return null;
+            }
+            do {
+                switch (reader.readField(MESSAGE_KEYS)) {
+                    case METHOD:
+                        name = reader.readString();
+                        break;
+                    case SERVICE:
+                        serviceName = reader.readString();
+                        break;
+                    case ID:
+                        id = reader.readInt();
+                        break;
+                    case ARGUMENTS:
+                        reader.peek();
+                        arguments = reader.position();
+                        reader.skipValue();
+                        break;
+                    default:
+                        // A result or an exception is not a call, anything else is ignored
+                        return null;
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+            if (reader.peek() != -1 || name == null || arguments < 0) {
+                return null;
+            }
+
+            ServiceInfo serviceInfo = service != null ? schema.service(service) : schema.serviceFor(serviceName, name);
+            MethodInfo methodInfo = serviceInfo == null
+                    ? null : serviceInfo.method(service != null ? name : CompiledSchema.methodName(name));
+            if (methodInfo == null) {
+                return null;
+            }
+            if (service == null) {
+                name = CompiledSchema.multiplexedName(serviceInfo, name);
+            }
+
+            reader.position(arguments);
+            if (!struct(methodInfo.arguments, tape)) {
+                return null;
+            }
+            return new TMessage(name, methodInfo.oneway ? TMessageType.ONEWAY : TMessageType.CALL, id);
+        } catch (TProtocolException e) {
+            return null;
+        }
+    }
+
+    private boolean struct(StructInfo struct, TokenTape tape) throws TProtocolException {
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                int index = reader.readField(struct.names);
+                if (index < 0 || kind(reader.peek()) != struct.kinds[index]) {
+                    return false;
+                }
+                FieldInfo field = struct.fields[index];
+                tape.addField(field.tField);
+                if (!value(field.type, tape)) {
+                    return false;
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        tape.addField(STOP_FIELD);
+        return true;
+    }
+
+    private boolean value(TypeInfo type, TokenTape tape) throws TProtocolException {
+        switch (type.ttype) {
+            case TType.BOOL:
+                tape.addLong(reader.readBoolean() ? 1 : 0);
+                return true;
+            case TType.BYTE:
+                tape.addLong(reader.readByte());
+                return true;
+            case TType.I16:
+                tape.addLong(reader.readShort());
+                return true;
+            case TType.I32:
+                tape.addLong(reader.readInt());
+                return true;
+            case TType.I64:
+                tape.addLong(reader.readLong());
+                return true;
+            case TType.DOUBLE:
+                tape.addDouble(reader.readDouble());
+                return true;
+            case TType.STRING:
+                tape.addObject(reader.readString());
+                return true;
+            case TType.STRUCT:
+                return type.struct != null && struct(type.struct, tape);
+            case TType.LIST:
+            case TType.SET:
+                return list(type, tape);
+            case TType.MAP:
+                return map(type, tape);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The members of a set can also be numbers written as strings.
+     */
+    private boolean list(TypeInfo type, TokenTape tape) throws TProtocolException {
+        byte elemType = type.elemType.ttype;
+        if (elemType == CompiledSchema.UNKNOWN_TYPE) {
+            return false;
+        }
+        reader.expect('[');
+        // The size is only known at the end, the header is written now so it comes first
+        int header = tape.addList(elemType, 0);
+        int size = 0;
+        if (!reader.consume(']')) {
+            boolean set = type.ttype == TType.SET;
+            do {
+                if (set ? !key(type.elemType, tape) : !value(type.elemType, tape)) {
+                    return false;
+                }
+                size++;
+            } while (reader.consume(','));
+            reader.expect(']');
+        }
+        tape.setSize(header, size);
+        return true;
+    }
+
+    private boolean map(TypeInfo type, TokenTape tape) throws TProtocolException {
+        byte keyType = type.keyType.ttype;
+        byte valueType = type.valueType.ttype;
+        if (keyType == CompiledSchema.UNKNOWN_TYPE || valueType == CompiledSchema.UNKNOWN_TYPE) {
+            return false;
+        }
+        reader.expect('{');
+        int header = tape.addMap(keyType, valueType, 0);
+        int size = 0;
+        if (!reader.consume('}')) {
+            do {
+                if (reader.peek() != '"' || !key(type.keyType, tape)) {
+                    return false;
+                }
+                reader.expect(':');
+                if (!value(type.valueType, tape)) {
+                    return false;
+                }
+                size++;
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        tape.setSize(header, size);
+        return true;
+    }
+
+    /**
+     * A key of a map or a member of a set, where numbers can be strings.
+     */
+    private boolean key(TypeInfo type, TokenTape tape) throws TProtocolException {
+        switch (type.ttype) {
+            case TType.BYTE:
+                tape.addLong(reader.readQuotedByte());
+                return true;
+            case TType.I16:
+                tape.addLong(reader.readQuotedShort());
+                return true;
+            case TType.I32:
+                tape.addLong(reader.readQuotedInt());
+                return true;
+            case TType.I64:
+                tape.addLong(reader.readQuotedLong());
+                return true;
+            case TType.DOUBLE:
+                tape.addDouble(reader.readQuotedDouble());
+                return true;
+            case TType.STRING:
+                tape.addObject(reader.readString());
+                return true;
+            default:
+                // Like bools and structs, which the JSON path turns keys into its own way
+                return false;
+        }
+    }
+
+    /**
+     * @return the kind of JSON value that starts with the byte, as {@link CompiledSchema#valueKind}
+     */
+    private static byte kind(int c) {
+        switch (c) {
+            case '{':
+            case '[':
+            case '"':
+                return (byte) c;
+            case 't':
+            case 'f':
+                return 't';
+            case '-':
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                return '0';
+            default:
+                return -1;
+        }
+    }
+}
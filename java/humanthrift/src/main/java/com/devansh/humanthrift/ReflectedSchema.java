@@ -0,0 +1,211 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import com.devansh.humanthrift.CompiledSchema.ServiceInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TFieldIdEnum;
+import org.apache.thrift.meta_data.FieldMetaData;
+import org.apache.thrift.meta_data.FieldValueMetaData;
+import org.apache.thrift.meta_data.ListMetaData;
+import org.apache.thrift.meta_data.MapMetaData;
+import org.apache.thrift.meta_data.SetMetaData;
+import org.apache.thrift.meta_data.StructMetaData;
+import org.apache.thrift.protocol.TType;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link CompiledSchema} from the classes generated by the Thrift compiler, using the
+ * {@code metaDataMap} every generated struct has. No JSON metadata is needed, so neither is the
+ * patched JSON generator.
+ * <p>
+ * Services are found by the methods of their {@code Iface} and the {@code _args} and
+ * {@code _result} classes generated for each method, which for the methods of a service it
+ * extends are found in the class of that service. Structs are named by their Java class name
+ * instead of "package.Struct", so use {@code LoginResult.class.getName()} with
+ * {@link HumanReadableJsonProtocol#forStruct}.
+ */
+public class ReflectedSchema {
+
+    /**
+     * @param services the classes generated for the services, like {@code AuthenticationService.class}
+     */
+    public static CompiledSchema of(Class<?>... services) {
+        return new ReflectedSchema().build(services);
+    }
+
+    private final Map<String, StructInfo> structs = new HashMap<>();
+    private final Deque<Class<?>> pending = new ArrayDeque<>();
+    private final List<TypeInfo> types = new ArrayList<>();
+
+    private ReflectedSchema() {
+    }
+
+    private CompiledSchema build(Class<?>[] services) {
+        Map<String, ServiceInfo> serviceInfos = new HashMap<>();
+        for (Class<?> service : services) {
+            ServiceInfo serviceInfo = new ServiceInfo(service.getSimpleName());
+            for (Method method : nested(service, "Iface", true).getMethods()) {
+                String name = method.getName();
+                if (!serviceInfo.methods.containsKey(name)) {
+                    // The methods of a service it extends are in the Iface of that service, which
+                    // has their _args and _result classes next to it
+                    Class<?> owner = method.getDeclaringClass().getEnclosingClass();
+                    serviceInfo.methods.put(name, reflectMethod(owner != null ? owner : service, name));
+                }
+            }
+            serviceInfos.put(serviceInfo.name, serviceInfo);
+        }
+
+        // The structs used by the methods, and the structs used by those, and so on
+        while (!pending.isEmpty()) {
+            Class<?> struct = pending.poll();
+            structs.put(struct.getName(), new StructInfo(struct.getName(), reflectFields(struct)));
+        }
+
+        for (TypeInfo type : types) {
+            if (type.className != null) {
+                type.struct = structs.get(type.className);
+            }
+        }
+        return new CompiledSchema(serviceInfos, structs);
+    }
+
+    private MethodInfo reflectMethod(Class<?> service, String name) {
+        Class<?> args = nested(service, name + "_args", true);
+        // One way methods have no result
+        Class<?> result = nested(service, name + "_result", false);
+
+        TypeInfo returnType = new TypeInfo("void", null, null, null, null);
+        List<FieldInfo> exceptions = new ArrayList<>();
+        if (result != null) {
+            for (FieldInfo field : reflectFields(result)) {
+                if (field.key == 0) {
+                    returnType = field.type;
+                } else {
+                    exceptions.add(field);
+                }
+            }
+        }
+
+        return new MethodInfo(name, result == null,
+                new StructInfo(name + "_args", reflectFields(args)),
+                returnType,
+                new StructInfo(name + "_exceptions", exceptions));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<FieldInfo> reflectFields(Class<?> struct) {
+        Map<? extends TFieldIdEnum, FieldMetaData> metaData =
+                FieldMetaData.getStructMetaDataMap((Class<? extends TBase<?, ?>>) struct);
+        List<FieldInfo> fields = new ArrayList<>(metaData.size());
+        for (Map.Entry<? extends TFieldIdEnum, FieldMetaData> entry : metaData.entrySet()) {
+            FieldMetaData field = entry.getValue();
+            fields.add(new FieldInfo(field.fieldName, entry.getKey().getThriftFieldId(),
+                    reflectType(field.valueMetaData, javaType(struct, field.fieldName))));
+        }
+        return fields;
+    }
+
+    /**
+     * @param javaType the type of the Java field, for the structs that are only known by a typedef
+     *                 name in the metadata. Can be null.
+     */
+    private TypeInfo reflectType(FieldValueMetaData meta, Type javaType) {
+        TypeInfo type;
+        if (meta instanceof StructMetaData || meta.type == TType.STRUCT) {
+            Class<?> struct = meta instanceof StructMetaData ? ((StructMetaData) meta).structClass : rawClass(javaType);
+            if (struct != null && !structs.containsKey(struct.getName())) {
+                // A placeholder until its fields are reflected, so it is only queued once
+                structs.put(struct.getName(), null);
+                pending.add(struct);
+            }
+            type = new TypeInfo("struct", struct == null ? null : struct.getName(), null, null, null);
+        } else if (meta instanceof MapMetaData) {
+            MapMetaData map = (MapMetaData) meta;
+            type = new TypeInfo("map", null,
+                    reflectType(map.keyMetaData, typeArgument(javaType, 0)),
+                    reflectType(map.valueMetaData, typeArgument(javaType, 1)), null);
+        } else if (meta instanceof ListMetaData) {
+            type = new TypeInfo("list", null, null, null,
+                    reflectType(((ListMetaData) meta).elemMetaData, typeArgument(javaType, 0)));
+        } else if (meta instanceof SetMetaData) {
+            type = new TypeInfo("set", null, null, null,
+                    reflectType(((SetMetaData) meta).elemMetaData, typeArgument(javaType, 0)));
+        } else {
+            type = new TypeInfo(typeId(meta.type), null, null, null, null);
+        }
+        types.add(type);
+        return type;
+    }
+
+    private static String typeId(byte ttype) {
+        switch (ttype) {
+            case TType.BOOL:
+                return "bool";
+            case TType.BYTE:
+                return "i8";
+            case TType.I16:
+                return "i16";
+            case TType.I32:
+            case TType.ENUM:
+                return "i32";
+            case TType.I64:
+                return "i64";
+            case TType.DOUBLE:
+                return "double";
+            case TType.STRING:
+                return "string";
+            default:
+                return "unknown";
+        }
+    }
+
+    private static Class<?> nested(Class<?> service, String name, boolean required) {
+        for (Class<?> nested : service.getDeclaredClasses()) {
+            if (nested.getSimpleName().equals(name)) {
+                return nested;
+            }
+        }
+        if (required) {
+            throw new IllegalArgumentException(service.getName() + " is not a generated Thrift service, it has no " + name);
+        }
+        return null;
+    }
+
+    private static Type javaType(Class<?> struct, String fieldName) {
+        try {
+            return struct.getField(fieldName).getGenericType();
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            return index < arguments.length ? arguments[index] : null;
+        }
+        return null;
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        }
+        return null;
+    }
+}
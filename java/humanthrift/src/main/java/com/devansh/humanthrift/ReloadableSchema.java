@@ -0,0 +1,104 @@
+package com.devansh.humanthrift;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A schema that is compiled again whenever the files in the metadata directory change, so methods
+ * and structs can be added without restarting.
+ * <p>
+ * The new schema is compiled on a background thread and then replaces the old one in a single
+ * write. Protocols never wait for it: messages that already started keep the schema they started
+ * with and the ones after that get the new one. If the metadata does not compile, say because a
+ * file is only half written, the old schema stays until the next change.
+ */
+public class ReloadableSchema implements SchemaSource, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReloadableSchema.class);
+
+    // How long the directory has to be quiet before reloading, since a change usually touches
+    // several files
+    private static final long QUIET_PERIOD_MS = 200;
+
+    private final Path metadataDir;
+    private final WatchService watcher;
+    private final Thread thread;
+    private volatile CompiledSchema schema;
+
+    /**
+     * Compiles the metadata in the directory and starts watching it for changes.
+     */
+    public ReloadableSchema(Path metadataDir) throws IOException {
+        this.metadataDir = metadataDir;
+        this.schema = compile();
+        this.watcher = metadataDir.getFileSystem().newWatchService();
+        metadataDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        this.thread = new Thread(this::watch, "schema-reload-" + metadataDir.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public CompiledSchema current() {
+        return schema;
+    }
+
+    /**
+     * Compiles the metadata again and swaps it in. This happens on its own when the files change.
+     *
+     * @return false if the metadata did not compile, in which case the current schema is kept
+     */
+    public boolean reload() {
+        try {
+            schema = compile();
+            log.info("Reloaded the schema from {}", metadataDir);
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Could not reload the schema from " + metadataDir, e);
+            return false;
+        }
+    }
+
+    private CompiledSchema compile() {
+        return CompiledSchema.compile(HumanReadableJsonHelpers.readAllFiles(metadataDir.toString()));
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                do {
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        log.warn("Stopped watching {}, it is no longer accessible", metadataDir);
+                        return;
+                    }
+                    key = watcher.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Stops watching the directory. The current schema can still be used.
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,650 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TEnum;
+import org.apache.thrift.TException;
+import org.apache.thrift.TFieldIdEnum;
+import org.apache.thrift.TFieldRequirementType;
+import org.apache.thrift.meta_data.FieldMetaData;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link JsonCodec} made at runtime for a class generated by the Thrift compiler, for schemas
+ * that are only known at runtime where {@link JsonCodecGenerator} can not be run. The fields are
+ * read and set through method handles made once for the class, which the JIT inlines like the
+ * field accesses of a generated codec.
+ * <p>
+ * A codec is only made for a struct once it has been used often enough, so structs that are
+ * rarely used stay on the generic path. It is kept on the {@link StructInfo} of the struct, so a
+ * schema that is loaded again starts over. Structs with binary fields or unions get no codec.
+ */
+final class RuntimeJsonCodec implements JsonCodec<TBase<?, ?>> {
+
+    private static final Logger log = LoggerFactory.getLogger(RuntimeJsonCodec.class);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+    private static final TList LIST = new TList();
+    private static final TSet SET = new TSet();
+    private static final TMap MAP = new TMap();
+
+    // Marks a struct that can not have a codec, so it is not tried again
+    private static final RuntimeJsonCodec NONE = new RuntimeJsonCodec(null);
+
+    /**
+     * @param type      the generated class of the struct
+     * @param threshold how many uses of the struct it takes to make its codec
+     * @return the codec of the struct, or null if it is not used often enough yet or can not have one
+     */
+    static RuntimeJsonCodec forStruct(StructInfo struct, Class<?> type, int threshold) {
+        RuntimeJsonCodec codec = struct.codec;
+        if (codec == null) {
+            if (struct.uses.incrementAndGet() < threshold) {
+                return null;
+            }
+            codec = make(struct, type);
+        }
+        return codec.type == type ? codec : null;
+    }
+
+    private static RuntimeJsonCodec make(StructInfo struct, Class<?> type) {
+        synchronized (struct) {
+            if (struct.codec != null) {
+                return struct.codec;
+            }
+            Map<StructInfo, RuntimeJsonCodec> made = new HashMap<>();
+            try {
+                RuntimeJsonCodec codec = codec(struct, type, made);
+                // Only now that all of them are complete
+                for (Map.Entry<StructInfo, RuntimeJsonCodec> entry : made.entrySet()) {
+                    if (entry.getKey().codec == null) {
+                        entry.getKey().codec = entry.getValue();
+                    }
+                }
+                log.debug("Made a codec for {}", struct.name);
+                return codec;
+            } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                log.info("No codec for {}, it stays on the generic path: {}", struct.name, e.getMessage());
+                struct.codec = NONE;
+                return NONE;
+            }
+        }
+    }
+
+    private static RuntimeJsonCodec codec(StructInfo struct, Class<?> type, Map<StructInfo, RuntimeJsonCodec> made)
+            throws ReflectiveOperationException {
+        RuntimeJsonCodec codec = struct.codec != null ? struct.codec : made.get(struct);
+        if (codec == null) {
+            // Added before its fields, for structs that contain themselves
+            codec = new RuntimeJsonCodec(type);
+            made.put(struct, codec);
+            codec.init(struct, made);
+        }
+        if (codec.type != type) {
+            throw new IllegalArgumentException(struct.name + " is not " + type.getName());
+        }
+        return codec;
+    }
+
+    private final Class<?> type;
+    private String name;
+    private MethodHandle constructor;
+    private MethodHandle validate;
+    private Field[] fields;
+    private byte[][] names;
+
+    private RuntimeJsonCodec(Class<?> type) {
+        this.type = type;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init(StructInfo struct, Map<StructInfo, RuntimeJsonCodec> made) throws ReflectiveOperationException {
+        if (!TBase.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException(type.getName() + " is not a generated struct");
+        }
+        Map<? extends TFieldIdEnum, FieldMetaData> metaData =
+                FieldMetaData.getStructMetaDataMap((Class<? extends TBase<?, ?>>) type);
+        Map<String, FieldMetaData> metaDataByName = new HashMap<>();
+        for (FieldMetaData field : metaData.values()) {
+            metaDataByName.put(field.fieldName, field);
+        }
+
+        Field[] fields = new Field[struct.fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            FieldInfo info = struct.fields[i];
+            FieldMetaData meta = metaDataByName.get(info.name);
+            if (meta == null) {
+                throw new IllegalArgumentException(type.getName() + " has no field " + info.name);
+            }
+            fields[i] = field(type, info, type.getField(info.name).getGenericType(),
+                    meta.requirementType == TFieldRequirementType.OPTIONAL, made);
+            names[i] = info.name;
+        }
+
+        this.constructor = LOOKUP.findConstructor(type, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(TBase.class));
+        this.validate = LOOKUP.findVirtual(type, "validate", MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, TBase.class));
+        this.name = struct.name;
+        this.fields = fields;
+        this.names = JsonReader.names(names);
+    }
+
+    @Override
+    public TBase<?, ?> read(JsonReader in) throws TException {
+        try {
+            return readStruct(in);
+        } catch (TException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TException(e);
+        }
+    }
+
+    @Override
+    public void write(TBase<?, ?> value, TSimpleJSONProtocol out) throws TException {
+        try {
+            writeStruct(value, out);
+        } catch (TException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TException(e);
+        }
+    }
+
+    private TBase<?, ?> readStruct(JsonReader in) throws Throwable {
+        TBase<?, ?> value = (TBase<?, ?>) constructor.invokeExact();
+        in.expect('{');
+        if (!in.consume('}')) {
+            do {
+                int field = in.readField(names);
+                if (field < 0) {
+                    in.skipField(name);
+                } else {
+                    fields[field].read(value, in);
+                }
+            } while (in.consume(','));
+            in.expect('}');
+        }
+        // The read and write of the generated classes check the required fields
+        validate.invokeExact(value);
+        return value;
+    }
+
+    private void writeStruct(TBase<?, ?> value, TSimpleJSONProtocol out) throws Throwable {
+        validate.invokeExact(value);
+        out.writeStructBegin(null);
+        for (Field field : fields) {
+            field.write(value, out);
+        }
+        out.writeStructEnd();
+    }
+
+    private static Field field(Class<?> owner, FieldInfo info, Type javaType, boolean optional,
+                               Map<StructInfo, RuntimeJsonCodec> made) throws ReflectiveOperationException {
+        Class<?> primitive = primitive(info.type.ttype);
+        if (primitive != null && javaType == primitive) {
+            String name = Character.toUpperCase(info.name.charAt(0)) + info.name.substring(1);
+            return new PrimitiveField(info,
+                    LOOKUP.findSetter(owner, info.name, primitive)
+                            .asType(MethodType.methodType(void.class, TBase.class, primitive)),
+                    LOOKUP.findGetter(owner, info.name, primitive)
+                            .asType(MethodType.methodType(primitive, TBase.class)),
+                    LOOKUP.findVirtual(owner, "set" + name + "IsSet", MethodType.methodType(void.class, boolean.class))
+                            .asType(MethodType.methodType(void.class, TBase.class, boolean.class)),
+                    // The generated write skips optional primitives that are not set
+                    !optional ? null : LOOKUP.findVirtual(owner, "isSet" + name, MethodType.methodType(boolean.class))
+                            .asType(MethodType.methodType(boolean.class, TBase.class)));
+        }
+        Class<?> fieldClass = rawClass(javaType);
+        return new ObjectField(info,
+                LOOKUP.findSetter(owner, info.name, fieldClass)
+                        .asType(MethodType.methodType(void.class, TBase.class, Object.class)),
+                LOOKUP.findGetter(owner, info.name, fieldClass)
+                        .asType(MethodType.methodType(Object.class, TBase.class)),
+                value(info.type, javaType, false, made));
+    }
+
+    private static Value value(TypeInfo info, Type javaType, boolean key,
+                               Map<StructInfo, RuntimeJsonCodec> made) throws ReflectiveOperationException {
+        Class<?> javaClass = rawClass(javaType);
+        if (javaClass == null) {
+            throw new IllegalArgumentException("Unknown Java type for " + info.typeId);
+        }
+        switch (info.ttype) {
+            case TType.BOOL:
+                if (key) {
+                    throw new IllegalArgumentException("bool keys are not supported");
+                }
+                return new ScalarValue(info, javaClass);
+            case TType.BYTE:
+            case TType.I16:
+            case TType.I64:
+            case TType.DOUBLE:
+            case TType.STRING:
+                return new ScalarValue(info, javaClass);
+            case TType.I32:
+                if (javaClass.isEnum() && TEnum.class.isAssignableFrom(javaClass)) {
+                    return new EnumValue(LOOKUP.findStatic(javaClass, "findByValue",
+                            MethodType.methodType(javaClass, int.class))
+                            .asType(MethodType.methodType(Object.class, int.class)));
+                }
+                return new ScalarValue(info, javaClass);
+            case TType.STRUCT:
+                if (key || info.struct == null) {
+                    throw new IllegalArgumentException("Unsupported struct " + info.className);
+                }
+                return new StructValue(codec(info.struct, javaClass, made));
+            case TType.LIST:
+                if (key || javaClass != List.class) {
+                    throw new IllegalArgumentException("Unsupported list " + javaType);
+                }
+                return new CollectionValue(false, value(info.elemType, typeArgument(javaType, 0), false, made));
+            case TType.SET:
+                if (key || javaClass != Set.class) {
+                    throw new IllegalArgumentException("Unsupported set " + javaType);
+                }
+                return new CollectionValue(true, value(info.elemType, typeArgument(javaType, 0), true, made));
+            case TType.MAP:
+                if (key || javaClass != Map.class) {
+                    throw new IllegalArgumentException("Unsupported map " + javaType);
+                }
+                return new MapValue(value(info.keyType, typeArgument(javaType, 0), true, made),
+                        value(info.valueType, typeArgument(javaType, 1), false, made));
+            default:
+                throw new IllegalArgumentException("Unsupported type " + info.typeId);
+        }
+    }
+
+    /**
+     * @return the Java type of a field of the Thrift type that is not an object, or null
+     */
+    private static Class<?> primitive(byte ttype) {
+        switch (ttype) {
+            case TType.BOOL:
+                return boolean.class;
+            case TType.BYTE:
+                return byte.class;
+            case TType.I16:
+                return short.class;
+            case TType.I32:
+                return int.class;
+            case TType.I64:
+                return long.class;
+            case TType.DOUBLE:
+                return double.class;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A field of a struct, read into and written from the struct.
+     */
+    private abstract static class Field {
+        final byte[] key;
+
+        Field(FieldInfo info) {
+            this.key = info.keyToken;
+        }
+
+        abstract void read(TBase<?, ?> value, JsonReader in) throws Throwable;
+
+        abstract void write(TBase<?, ?> value, TSimpleJSONProtocol out) throws Throwable;
+    }
+
+    /**
+     * A field with a primitive type, read and written without boxing it.
+     */
+    private static final class PrimitiveField extends Field {
+        private final byte ttype;
+        private final MethodHandle setter;
+        private final MethodHandle getter;
+        private final MethodHandle setIsSet;
+        // Null unless the field is optional
+        private final MethodHandle isSet;
+
+        PrimitiveField(FieldInfo info, MethodHandle setter, MethodHandle getter, MethodHandle setIsSet,
+                       MethodHandle isSet) {
+            super(info);
+            this.ttype = info.type.ttype;
+            this.setter = setter;
+            this.getter = getter;
+            this.setIsSet = setIsSet;
+            this.isSet = isSet;
+        }
+
+        @Override
+        void read(TBase<?, ?> value, JsonReader in) throws Throwable {
+            switch (ttype) {
+                case TType.BOOL:
+                    setter.invokeExact(value, in.readBoolean());
+                    break;
+                case TType.BYTE:
+                    setter.invokeExact(value, in.readByte());
+                    break;
+                case TType.I16:
+                    setter.invokeExact(value, in.readShort());
+                    break;
+                case TType.I32:
+                    setter.invokeExact(value, in.readInt());
+                    break;
+                case TType.I64:
+                    setter.invokeExact(value, in.readLong());
+                    break;
+                default:
+                    setter.invokeExact(value, in.readDouble());
+            }
+            setIsSet.invokeExact(value, true);
+        }
+
+        @Override
+        void write(TBase<?, ?> value, TSimpleJSONProtocol out) throws Throwable {
+            if (isSet != null && !(boolean) isSet.invokeExact(value)) {
+                return;
+            }
+            out.writeKey(key);
+            switch (ttype) {
+                case TType.BOOL:
+                    out.writeBool((boolean) getter.invokeExact(value));
+                    break;
+                case TType.BYTE:
+                    out.writeByte((byte) getter.invokeExact(value));
+                    break;
+                case TType.I16:
+                    out.writeI16((short) getter.invokeExact(value));
+                    break;
+                case TType.I32:
+                    out.writeI32((int) getter.invokeExact(value));
+                    break;
+                case TType.I64:
+                    out.writeI64((long) getter.invokeExact(value));
+                    break;
+                default:
+                    out.writeDouble((double) getter.invokeExact(value));
+            }
+        }
+    }
+
+    /**
+     * A field that holds an object, which is not written when it is null.
+     */
+    private static final class ObjectField extends Field {
+        private final MethodHandle setter;
+        private final MethodHandle getter;
+        private final Value codec;
+
+        ObjectField(FieldInfo info, MethodHandle setter, MethodHandle getter, Value codec) {
+            super(info);
+            this.setter = setter;
+            this.getter = getter;
+            this.codec = codec;
+        }
+
+        @Override
+        void read(TBase<?, ?> value, JsonReader in) throws Throwable {
+            setter.invokeExact(value, codec.read(in));
+        }
+
+        @Override
+        void write(TBase<?, ?> value, TSimpleJSONProtocol out) throws Throwable {
+            Object fieldValue = (Object) getter.invokeExact(value);
+            if (fieldValue != null) {
+                out.writeKey(key);
+                codec.write(fieldValue, out);
+            }
+        }
+    }
+
+    /**
+     * Reads and writes a value held as an object, in a field or a container.
+     */
+    private abstract static class Value {
+
+        abstract Object read(JsonReader in) throws Throwable;
+
+        /**
+         * Reads the value as a key of a map or a member of a set, where numbers can be strings.
+         */
+        Object readKey(JsonReader in) throws Throwable {
+            return read(in);
+        }
+
+        abstract void write(Object value, TSimpleJSONProtocol out) throws Throwable;
+    }
+
+    private static final class ScalarValue extends Value {
+        private final byte ttype;
+
+        ScalarValue(TypeInfo info, Class<?> javaClass) {
+            this.ttype = info.ttype;
+            Class<?> expected = ttype == TType.STRING ? String.class : MethodType.methodType(primitive(ttype)).wrap().returnType();
+            if (javaClass != expected) {
+                throw new IllegalArgumentException("Unsupported " + info.typeId + " " + javaClass.getName());
+            }
+        }
+
+        @Override
+        Object read(JsonReader in) throws Throwable {
+            return read(in, false);
+        }
+
+        @Override
+        Object readKey(JsonReader in) throws Throwable {
+            return read(in, true);
+        }
+
+        private Object read(JsonReader in, boolean key) throws Throwable {
+            switch (ttype) {
+                case TType.BOOL:
+                    return in.readBoolean();
+                case TType.BYTE:
+                    return key ? in.readQuotedByte() : in.readByte();
+                case TType.I16:
+                    return key ? in.readQuotedShort() : in.readShort();
+                case TType.I32:
+                    return key ? in.readQuotedInt() : in.readInt();
+                case TType.I64:
+                    return key ? in.readQuotedLong() : in.readLong();
+                case TType.DOUBLE:
+                    return key ? in.readQuotedDouble() : in.readDouble();
+                default:
+                    return in.readString();
+            }
+        }
+
+        @Override
+        void write(Object value, TSimpleJSONProtocol out) throws Throwable {
+            switch (ttype) {
+                case TType.BOOL:
+                    out.writeBool((Boolean) value);
+                    break;
+                case TType.BYTE:
+                    out.writeByte((Byte) value);
+                    break;
+                case TType.I16:
+                    out.writeI16((Short) value);
+                    break;
+                case TType.I32:
+                    out.writeI32((Integer) value);
+                    break;
+                case TType.I64:
+                    out.writeI64((Long) value);
+                    break;
+                case TType.DOUBLE:
+                    out.writeDouble((Double) value);
+                    break;
+                default:
+                    out.writeString((String) value);
+            }
+        }
+    }
+
+    private static final class EnumValue extends Value {
+        private final MethodHandle findByValue;
+
+        EnumValue(MethodHandle findByValue) {
+            this.findByValue = findByValue;
+        }
+
+        @Override
+        Object read(JsonReader in) throws Throwable {
+            return (Object) findByValue.invokeExact(in.readInt());
+        }
+
+        @Override
+        Object readKey(JsonReader in) throws Throwable {
+            return (Object) findByValue.invokeExact(in.readQuotedInt());
+        }
+
+        @Override
+        void write(Object value, TSimpleJSONProtocol out) throws Throwable {
+            out.writeI32(((TEnum) value).getValue());
+        }
+    }
+
+    private static final class StructValue extends Value {
+        private final RuntimeJsonCodec codec;
+
+        StructValue(RuntimeJsonCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        Object read(JsonReader in) throws Throwable {
+            return codec.readStruct(in);
+        }
+
+        @Override
+        void write(Object value, TSimpleJSONProtocol out) throws Throwable {
+            codec.writeStruct((TBase<?, ?>) value, out);
+        }
+    }
+
+    /**
+     * A list, or a set, which can also be sent as the keys of an object.
+     */
+    private static final class CollectionValue extends Value {
+        private final boolean set;
+        private final Value element;
+
+        CollectionValue(boolean set, Value element) {
+            this.set = set;
+            this.element = element;
+        }
+
+        @Override
+        Object read(JsonReader in) throws Throwable {
+            Collection<Object> collection = set ? new HashSet<>() : new ArrayList<>();
+            if (set && in.consume('{')) {
+                if (!in.consume('}')) {
+                    do {
+                        collection.add(element.readKey(in));
+                        in.expect(':');
+                        in.skipValue();
+                    } while (in.consume(','));
+                    in.expect('}');
+                }
+                return collection;
+            }
+            in.expect('[');
+            if (!in.consume(']')) {
+                do {
+                    collection.add(set ? element.readKey(in) : element.read(in));
+                } while (in.consume(','));
+                in.expect(']');
+            }
+            return collection;
+        }
+
+        @Override
+        void write(Object value, TSimpleJSONProtocol out) throws Throwable {
+            if (set) {
+                out.writeSetBegin(SET);
+            } else {
+                out.writeListBegin(LIST);
+            }
+            for (Object member : (Collection<?>) value) {
+                element.write(member, out);
+            }
+            if (set) {
+                out.writeSetEnd();
+            } else {
+                out.writeListEnd();
+            }
+        }
+    }
+
+    private static final class MapValue extends Value {
+        private final Value key;
+        private final Value value;
+
+        MapValue(Value key, Value value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        Object read(JsonReader in) throws Throwable {
+            Map<Object, Object> map = new HashMap<>();
+            in.expect('{');
+            if (!in.consume('}')) {
+                do {
+                    Object k = key.readKey(in);
+                    in.expect(':');
+                    map.put(k, value.read(in));
+                } while (in.consume(','));
+                in.expect('}');
+            }
+            return map;
+        }
+
+        @Override
+        void write(Object map, TSimpleJSONProtocol out) throws Throwable {
+            out.writeMapBegin(MAP);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet()) {
+                key.write(entry.getKey(), out);
+                value.write(entry.getValue(), out);
+            }
+            out.writeMapEnd();
+        }
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            return index < arguments.length ? arguments[index] : null;
+        }
+        return null;
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,322 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import com.devansh.humanthrift.CompiledSchema.ServiceInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link CompiledSchema} saved in a binary file, so a process can start without parsing all of
+ * the Thrift JSON metadata. Create the snapshot when the metadata changes, with
+ * {@code gradle schemaSnapshot} or by running this class with the metadata directory and the
+ * snapshot file, and {@link #load(Path, Path)} it at startup.
+ * <p>
+ * The snapshot has a header (magic, version, checksum of the metadata files, checksum and length
+ * of the body) and a body with a table of all the strings, then the types, structs and services,
+ * which refer to strings and types by their index in those tables.
+ */
+public class SchemaSnapshot {
+
+    private static final int MAGIC = 0x48545353; // "HTSS"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 24;
+    private static final int NONE = -1;
+
+    /**
+     * Writes the snapshot of the metadata in a directory.
+     *
+     * @param args the directory with the Thrift JSON files and the snapshot file to write
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SchemaSnapshot <thrift-json directory> <snapshot file>");
+            System.exit(1);
+        }
+        Path metadataDir = Paths.get(args[0]);
+        Path snapshot = Paths.get(args[1]);
+        CompiledSchema schema = CompiledSchema.compile(HumanReadableJsonHelpers.readAllFiles(args[0]));
+        if (snapshot.getParent() != null) {
+            Files.createDirectories(snapshot.getParent());
+        }
+        write(schema, checksum(metadataDir), snapshot);
+    }
+
+    /**
+     * @param sourceChecksum the {@link #checksum(Path)} of the metadata the schema was compiled from
+     */
+    public static void write(CompiledSchema schema, long sourceChecksum, Path snapshot) throws IOException {
+        byte[] body = new Writer().write(schema);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(sourceChecksum);
+        header.putInt((int) crc.getValue());
+        header.putInt(body.length);
+
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(body);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Loads a snapshot, failing if it was not made from the metadata that is in the directory now.
+     */
+    public static CompiledSchema load(Path snapshot, Path metadataDir) throws IOException {
+        return load(snapshot, checksum(metadataDir));
+    }
+
+    /**
+     * Loads a snapshot without checking that it is up to date with the metadata.
+     */
+    public static CompiledSchema load(Path snapshot) throws IOException {
+        return load(snapshot, NONE);
+    }
+
+    private static CompiledSchema load(Path snapshot, long sourceChecksum) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buf.remaining() < HEADER_LENGTH || buf.getInt() != MAGIC) {
+            throw new IOException(snapshot + " is not a schema snapshot");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException(snapshot + " has version " + version + ", expected " + VERSION);
+        }
+        long source = buf.getLong();
+        if (sourceChecksum != NONE && source != sourceChecksum) {
+            throw new IOException(snapshot + " is stale, the metadata changed since it was written");
+        }
+        int bodyChecksum = buf.getInt();
+        int length = buf.getInt();
+        if (length != buf.remaining()) {
+            throw new IOException(snapshot + " is truncated");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate());
+        if ((int) crc.getValue() != bodyChecksum) {
+            throw new IOException(snapshot + " is corrupted");
+        }
+        return new Reader(buf).read();
+    }
+
+    /**
+     * @return a checksum of the names and contents of the files in the metadata directory, the
+     * same files {@link HumanReadableJsonHelpers#readAllFiles(String)} reads
+     */
+    public static long checksum(Path metadataDir) throws IOException {
+        CRC32 crc = new CRC32();
+        for (Path file : HumanReadableJsonHelpers.listFiles(metadataDir)) {
+            byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+            crc.update(name, 0, name.length);
+            byte[] contents = Files.readAllBytes(file);
+            crc.update(contents, 0, contents.length);
+        }
+        return crc.getValue();
+    }
+
+    private static class Writer {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Map<TypeInfo, Integer> types = new IdentityHashMap<>();
+        private final ByteArrayOutputStream typeBytes = new ByteArrayOutputStream();
+        private final DataOutputStream typeOut = new DataOutputStream(typeBytes);
+
+        byte[] write(CompiledSchema schema) throws IOException {
+            // Structs and services are written first so the strings and types they use are known
+            ByteArrayOutputStream structBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(structBytes);
+            out.writeInt(schema.structs().size());
+            for (StructInfo struct : schema.structs().values()) {
+                out.writeInt(string(struct.name));
+                writeFields(out, struct.fields);
+            }
+
+            out.writeInt(schema.services().size());
+            for (ServiceInfo service : schema.services().values()) {
+                out.writeInt(string(service.name));
+                out.writeInt(service.methods.size());
+                for (MethodInfo method : service.methods.values()) {
+                    out.writeInt(string(method.name));
+                    out.writeBoolean(method.oneway);
+                    writeFields(out, method.arguments.fields);
+                    out.writeInt(type(method.returnType));
+                    writeFields(out, method.exceptions.fields);
+                }
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bodyOut = new DataOutputStream(body);
+            bodyOut.writeInt(strings.size());
+            for (String s : strings.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                bodyOut.writeInt(bytes.length);
+                bodyOut.write(bytes);
+            }
+            bodyOut.writeInt(types.size());
+            typeBytes.writeTo(bodyOut);
+            structBytes.writeTo(bodyOut);
+            return body.toByteArray();
+        }
+
+        private void writeFields(DataOutputStream out, FieldInfo[] fields) throws IOException {
+            out.writeInt(fields.length);
+            for (FieldInfo field : fields) {
+                out.writeInt(string(field.name));
+                out.writeShort(field.key);
+                out.writeInt(type(field.type));
+            }
+        }
+
+        private int string(String s) {
+            if (s == null) {
+                return NONE;
+            }
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.put(s, index);
+            }
+            return index;
+        }
+
+        // The types a type refers to are written before it, so they can be created in order
+        private int type(TypeInfo type) throws IOException {
+            if (type == null) {
+                return NONE;
+            }
+            Integer index = types.get(type);
+            if (index != null) {
+                return index;
+            }
+            int keyType = type(type.keyType);
+            int valueType = type(type.valueType);
+            int elemType = type(type.elemType);
+            typeOut.writeInt(string(type.typeId));
+            typeOut.writeInt(string(type.className));
+            typeOut.writeInt(keyType);
+            typeOut.writeInt(valueType);
+            typeOut.writeInt(elemType);
+            index = types.size();
+            types.put(type, index);
+            return index;
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer buf;
+        private String[] strings;
+        private TypeInfo[] types;
+
+        Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        CompiledSchema read() {
+            strings = new String[buf.getInt()];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buf.getInt();
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                buf.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            types = new TypeInfo[buf.getInt()];
+            for (int i = 0; i < types.length; i++) {
+                String typeId = string();
+                String className = string();
+                TypeInfo keyType = type();
+                TypeInfo valueType = type();
+                TypeInfo elemType = type();
+                types[i] = new TypeInfo(typeId, className, keyType, valueType, elemType);
+            }
+
+            int structCount = buf.getInt();
+            Map<String, StructInfo> structs = new HashMap<>(structCount * 2);
+            for (int i = 0; i < structCount; i++) {
+                String name = string();
+                structs.put(name, new StructInfo(name, fields()));
+            }
+
+            int serviceCount = buf.getInt();
+            Map<String, ServiceInfo> services = new HashMap<>(serviceCount * 2);
+            for (int i = 0; i < serviceCount; i++) {
+                ServiceInfo service = new ServiceInfo(string());
+                int methodCount = buf.getInt();
+                for (int j = 0; j < methodCount; j++) {
+                    String name = string();
+                    boolean oneway = buf.get() != 0;
+                    StructInfo arguments = new StructInfo(name + "_args", fields());
+                    TypeInfo returnType = type();
+                    StructInfo exceptions = new StructInfo(name + "_exceptions", fields());
+                    service.methods.put(name, new MethodInfo(name, oneway, arguments, returnType, exceptions));
+                }
+                services.put(service.name, service);
+            }
+
+            for (TypeInfo type : types) {
+                if (type.className != null) {
+                    type.struct = structs.get(type.className);
+                }
+            }
+            return new CompiledSchema(services, structs);
+        }
+
+        private List<FieldInfo> fields() {
+            int count = buf.getInt();
+            List<FieldInfo> fields = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = string();
+                short key = buf.getShort();
+                fields.add(new FieldInfo(name, key, type()));
+            }
+            return fields;
+        }
+
+        private String string() {
+            int index = buf.getInt();
+            return index == NONE ? null : strings[index];
+        }
+
+        private TypeInfo type() {
+            int index = buf.getInt();
+            return index == NONE ? null : types[index];
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.devansh.humanthrift;
+
+/**
+ * Where a {@link HumanReadableJsonProtocol} gets its schema from. The protocol asks for the
+ * current schema at the start of every message and uses that one until the message is done, so a
+ * source can hand out a new schema at any time.
+ */
+public interface SchemaSource {
+
+    /**
+     * Called for every message, so this must be cheap and must not block.
+     */
+    CompiledSchema current();
+}
@@ -0,0 +1,93 @@
+package com.devansh.humanthrift;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the keys that were skipped because the struct they were sent in has no field by that
+ * name, for a {@link HumanReadableJsonProtocol.Factory#skipUnknownFields(boolean)}. Shared by all
+ * the protocols of the factory, so it shows which clients send fields the server does not know
+ * about yet.
+ * <p>
+ * Structs are counted under their name in the Thrift file, like "User" or "login_args", whether
+ * the schema, a generated codec or a reflected one skipped the key. The keys are chosen by the
+ * clients, so only the first {@link #DEFAULT_MAX_FIELDS} are counted on their own and the rest
+ * of a struct are counted together under {@link #OTHER_FIELDS}.
+ */
+public class SkippedFields {
+
+    public static final int DEFAULT_MAX_FIELDS = 1000;
+    public static final String OTHER_FIELDS = "*";
+
+    private final Map<String, Map<String, LongAdder>> counts = new ConcurrentHashMap<>();
+    // The counts of each struct by the name the caller has for it, so it is only shortened once
+    private final Map<String, Map<String, LongAdder>> structs = new ConcurrentHashMap<>();
+    private final int maxFields;
+    private final AtomicInteger fields = new AtomicInteger();
+
+    public SkippedFields() {
+        this(DEFAULT_MAX_FIELDS);
+    }
+
+    /**
+     * @param maxFields how many different keys are counted on their own, across all the structs
+     */
+    public SkippedFields(int maxFields) {
+        this.maxFields = maxFields;
+    }
+
+    void add(String struct, String field) {
+        Map<String, LongAdder> fieldCounts = structs.get(struct);
+        if (fieldCounts == null) {
+            fieldCounts = structs.computeIfAbsent(struct,
+                    name -> counts.computeIfAbsent(structName(name), key -> new ConcurrentHashMap<>()));
+        }
+        LongAdder count = fieldCounts.get(field);
+        if (count == null) {
+            // Threads adding new keys at the same time can go a little past the limit
+            count = fields.get() < maxFields
+                    ? fieldCounts.computeIfAbsent(field, key -> {
+                        fields.incrementAndGet();
+                        return new LongAdder();
+                    })
+                    : fieldCounts.computeIfAbsent(OTHER_FIELDS, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * @param struct the name of the struct, like "User" or "login_args". A namespace in front of
+     *               it, like "auth.User", is left out.
+     * @return how many times the field was skipped in the struct
+     */
+    public long count(String struct, String field) {
+        Map<String, LongAdder> fieldCounts = counts.get(structName(struct));
+        LongAdder count = fieldCounts == null ? null : fieldCounts.get(field);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return the count of every field that was skipped, by "struct.field"
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Map<String, LongAdder>> struct : counts.entrySet()) {
+            for (Map.Entry<String, LongAdder> field : struct.getValue().entrySet()) {
+                snapshot.put(struct.getKey() + "." + field.getKey(), field.getValue().sum());
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * The schemas name structs "auth.User" or by their Java class name, and the methods of a
+     * service "login_args", so the part after the last dot is what they have in common.
+     */
+    private static String structName(String struct) {
+        int dot = struct.lastIndexOf('.');
+        return dot < 0 ? struct : struct.substring(dot + 1);
+    }
+}
@@ -0,0 +1,402 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import com.devansh.humanthrift.CompiledSchema.ServiceInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+import java.util.Arrays;
+
+/**
+ * Decodes a message straight from its bytes as the {@link org.apache.thrift.protocol.TProtocol}
+ * read methods are called, using the schema to know what comes next. Nothing is parsed ahead of
+ * the reads except for counting the elements of a container, which Thrift needs up front. The
+ * containers inside it are counted in the same pass, so no bytes are counted twice.
+ */
+class StreamingJsonDecoder {
+
+    private static final String METHOD_KEY = "method";
+
+    // The keys of a message, in the order of the constants after it
+    private static final byte[][] MESSAGE_KEYS =
+            JsonReader.names(METHOD_KEY, "service", "id", "arguments", "result", "exception");
+    private static final int METHOD = 0;
+    private static final int SERVICE = 1;
+    private static final int ID = 2;
+    private static final int ARGUMENTS = 3;
+    private static final int RESULT = 4;
+    private static final int EXCEPTION = 5;
+    private static final byte[][] NO_KEYS = new byte[0][];
+
+    private static final TStruct ANONYMOUS_STRUCT = new TStruct();
+    private static final TField STOP_FIELD = new TField("", TType.STOP, (short) -1);
+
+    private static final byte STRUCT = 0;
+    private static final byte LIST = 1;
+    private static final byte SET = 2;
+    private static final byte SET_OBJECT = 3;
+    private static final byte MAP = 4;
+
+    private final JsonReader reader = new JsonReader();
+    private final ContainerSizes sizes = new ContainerSizes();
+
+    private byte[] kinds = new byte[16];
+    private boolean[] first = new boolean[16];
+    private boolean[] keyTurn = new boolean[16];
+    private Object[] infos = new Object[16];
+    private TypeInfo[] fieldTypes = new TypeInfo[16];
+    private int depth;
+
+    private StructInfo root;
+    private boolean rootPending;
+    private boolean keyPosition;
+
+    /**
+     * @param skippedFields where to count the keys that are not fields, or null to fail on them
+     */
+    StreamingJsonDecoder(SkippedFields skippedFields) {
+        reader.skippedFields(skippedFields);
+    }
+
+    void reset(byte[] buf, int offset, int length) {
+        reader.reset(buf, offset, length);
+        sizes.clear();
+        depth = 0;
+        root = null;
+        rootPending = false;
+    }
+
+    /**
+     * The next {@link #readStructBegin()} reads the whole input as the given struct.
+     */
+    void startStruct(StructInfo struct) {
+        root = struct;
+        rootPending = true;
+    }
+
+    /**
+     * @param service the service of the endpoint, or null to find it by the message for an endpoint
+     *                that serves every service in the schema
+     */
+    TMessage readMessageBegin(CompiledSchema schema, String service) throws TProtocolException {
+        String name = null;
+        String serviceName = null;
+        int id = 0;
+        boolean hasId = false;
+        int arguments = -1;
+        int result = -1;
+        int exception = -1;
+
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                int key = reader.readField(MESSAGE_KEYS);
+                reader.peek();
+                switch (key) {
+                    case METHOD:
+                        name = reader.readString();
+                        continue;
+                    case SERVICE:
+                        serviceName = reader.readString();
+                        continue;
+                    case ID:
+                        id = reader.readInt();
+                        hasId = true;
+                        continue;
+                    case ARGUMENTS:
+                        arguments = reader.position();
+                        break;
+                    case RESULT:
+                        result = reader.position();
+                        break;
+                    case EXCEPTION:
+                        exception = reader.position();
+                        break;
+                }
+                reader.skipValue();
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+
+        if (name == null) {
+            throw new TProtocolException(TProtocolException.INVALID_DATA,
+                    new Exception("Missing " + METHOD_KEY));
+        }
+
+        MethodInfo methodInfo = null;
+        ServiceInfo serviceInfo = service != null ? schema.service(service) : schema.serviceFor(serviceName, name);
+        if (serviceInfo != null) {
+            methodInfo = serviceInfo.method(service != null ? name : CompiledSchema.methodName(name));
+            if (service == null) {
+                name = CompiledSchema.multiplexedName(serviceInfo, name);
+            }
+        }
+        byte type;
+        if (arguments >= 0) {
+            type = methodInfo != null && methodInfo.oneway ? TMessageType.ONEWAY : TMessageType.CALL;
+            startStruct(methodInfo == null ? null : methodInfo.arguments);
+            reader.position(arguments);
+        } else if (result >= 0) {
+            type = TMessageType.REPLY;
+            startStruct(methodInfo == null ? null : methodInfo.result);
+            reader.position(result);
+        } else if (exception >= 0) {
+            type = TMessageType.EXCEPTION;
+            startStruct(schema.applicationException());
+            reader.position(exception);
+        } else {
+            throw new TProtocolException(TProtocolException.INVALID_DATA,
+                    new Exception("Unable to parse message type"));
+        }
+
+        if (!hasId) {
+            id = type == TMessageType.CALL || type == TMessageType.ONEWAY ? 0 : 1;
+        }
+        return new TMessage(name, type, id);
+    }
+
+    TStruct readStructBegin() throws TProtocolException {
+        StructInfo info;
+        if (rootPending) {
+            rootPending = false;
+            info = root;
+        } else {
+            info = beginValue().struct();
+        }
+        reader.expect('{');
+        push(STRUCT, info);
+        return ANONYMOUS_STRUCT;
+    }
+
+    void readStructEnd() throws TProtocolException {
+        reader.expect('}');
+        depth--;
+    }
+
+    TField readFieldBegin() throws TProtocolException {
+        int d = depth - 1;
+        StructInfo info = (StructInfo) infos[d];
+        if (info == null) {
+            // Nothing is known about this struct, so none of its fields are handed out
+            while (reader.peek() != '}') {
+                nextMember(d, NO_KEYS);
+                reader.skipValue();
+            }
+            return STOP_FIELD;
+        }
+        int index;
+        do {
+            if (reader.peek() == '}') {
+                return STOP_FIELD;
+            }
+            index = nextMember(d, info.names);
+            if (index < 0) {
+                reader.skipField(info.name);
+            }
+        } while (index < 0);
+        FieldInfo field = info.fields[index];
+        field.type.requireKnownType();
+        fieldTypes[d] = field.type;
+        return field.tField;
+    }
+
+    /**
+     * @return the index of the key of the next member in names, or -1
+     */
+    private int nextMember(int d, byte[][] names) throws TProtocolException {
+        if (!first[d]) {
+            reader.expect(',');
+        }
+        first[d] = false;
+        return reader.readField(names);
+    }
+
+    /**
+     * @return the size of the container that was just opened
+     */
+    private int size() throws TProtocolException {
+        int start = reader.position();
+        int size = sizes.find(start);
+        if (size < 0) {
+            // Not inside a container that was counted
+            reader.count(sizes);
+            size = sizes.find(start);
+        }
+        return size;
+    }
+
+    TMap readMapBegin() throws TProtocolException {
+        TypeInfo type = beginValue();
+        reader.expect('{');
+        int size = size();
+        push(MAP, type);
+        return new TMap(type.keyType.ttype(), type.valueType.ttype(), size);
+    }
+
+    void readMapEnd() throws TProtocolException {
+        reader.expect('}');
+        depth--;
+    }
+
+    TList readListBegin() throws TProtocolException {
+        TypeInfo type = beginValue();
+        reader.expect('[');
+        int size = size();
+        push(LIST, type);
+        return new TList(type.elemType.ttype(), size);
+    }
+
+    void readListEnd() throws TProtocolException {
+        reader.expect(']');
+        depth--;
+    }
+
+    TSet readSetBegin() throws TProtocolException {
+        TypeInfo type = beginValue();
+        int size;
+        if (reader.consume('[')) {
+            size = size();
+            push(SET, type);
+        } else {
+            // A set can also be sent as the keys of an object
+            reader.expect('{');
+            size = size();
+            push(SET_OBJECT, type);
+        }
+        return new TSet(type.elemType.ttype(), size);
+    }
+
+    void readSetEnd() throws TProtocolException {
+        int d = depth - 1;
+        if (kinds[d] == SET_OBJECT) {
+            if (!first[d]) {
+                reader.expect(':');
+                reader.skipValue();
+            }
+            reader.expect('}');
+        } else {
+            reader.expect(']');
+        }
+        depth--;
+    }
+
+    boolean readBool() throws TProtocolException {
+        beginValue();
+        return reader.readBoolean();
+    }
+
+    byte readByte() throws TProtocolException {
+        beginValue();
+        return keyPosition ? reader.readQuotedByte() : reader.readByte();
+    }
+
+    short readI16() throws TProtocolException {
+        beginValue();
+        return keyPosition ? reader.readQuotedShort() : reader.readShort();
+    }
+
+    int readI32() throws TProtocolException {
+        beginValue();
+        return keyPosition ? reader.readQuotedInt() : reader.readInt();
+    }
+
+    long readI64() throws TProtocolException {
+        beginValue();
+        return keyPosition ? reader.readQuotedLong() : reader.readLong();
+    }
+
+    double readDouble() throws TProtocolException {
+        beginValue();
+        return keyPosition ? reader.readQuotedDouble() : reader.readDouble();
+    }
+
+    String readString() throws TProtocolException {
+        beginValue();
+        return reader.readString();
+    }
+
+    /**
+     * Moves past whatever separates the next value from the previous one in the enclosing struct
+     * or container and returns the type the schema expects for it.
+     */
+    private TypeInfo beginValue() throws TProtocolException {
+        int d = depth - 1;
+        if (d < 0) {
+            throw new TProtocolException(TProtocolException.INVALID_DATA,
+                    new Exception("Expected a struct"));
+        }
+
+        keyPosition = false;
+        switch (kinds[d]) {
+            case STRUCT:
+                return fieldTypes[d];
+
+            case LIST:
+                if (!first[d]) {
+                    reader.expect(',');
+                }
+                first[d] = false;
+                return ((TypeInfo) infos[d]).elemType;
+
+            case SET:
+                if (!first[d]) {
+                    reader.expect(',');
+                }
+                first[d] = false;
+                keyPosition = true;
+                return ((TypeInfo) infos[d]).elemType;
+
+            case SET_OBJECT:
+                if (!first[d]) {
+                    reader.expect(':');
+                    reader.skipValue();
+                    reader.expect(',');
+                }
+                first[d] = false;
+                keyPosition = true;
+                return ((TypeInfo) infos[d]).elemType;
+
+            default:
+                TypeInfo type = (TypeInfo) infos[d];
+                if (keyTurn[d]) {
+                    if (!first[d]) {
+                        reader.expect(',');
+                    }
+                    first[d] = false;
+                    keyTurn[d] = false;
+                    keyPosition = true;
+                    return type.keyType;
+                }
+                reader.expect(':');
+                keyTurn[d] = true;
+                return type.valueType;
+        }
+    }
+
+    private void push(byte kind, Object info) {
+        if (depth == kinds.length) {
+            int size = depth * 2;
+            kinds = Arrays.copyOf(kinds, size);
+            first = Arrays.copyOf(first, size);
+            keyTurn = Arrays.copyOf(keyTurn, size);
+            infos = Arrays.copyOf(infos, size);
+            fieldTypes = Arrays.copyOf(fieldTypes, size);
+        }
+        kinds[depth] = kind;
+        first[depth] = true;
+        keyTurn[depth] = true;
+        infos[depth] = info;
+        fieldTypes[depth] = null;
+        depth++;
+    }
+}
@@ -6,7 +6,8 @@ import org.apache.thrift.transport.TTransport;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.util.Stack;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 // This class is the same as the Thrift TSimpleJSONProtocol
 // with the only difference being in WriteBool where it outputs
@@ -14,52 +15,235 @@ import java.util.Stack;
 // Could not extend it since the
 // writeContext_.write()
 // method is protected
+//
+// Output is collected in a buffer and handed to the transport in a single
+// write once the outermost value (usually the message) is complete, or
+// earlier if the buffer goes past the high-water mark.
+//
+// The write contexts are kept in arrays indexed by depth instead of a stack
+// of context objects, so nesting does not allocate.
 public class TSimpleJSONProtocol extends TProtocol {
-    private static final byte[] COMMA = new byte[]{(byte) 44};
-    private static final byte[] COLON = new byte[]{(byte) 58};
+    public static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+    public static final int DEFAULT_MAX_DEPTH = 64;
+
+    private static final byte COMMA = (byte) 44;
+    private static final byte COLON = (byte) 58;
+    private static final byte NEWLINE = '\n';
     private static final byte[] LBRACE = new byte[]{(byte) 123};
     private static final byte[] RBRACE = new byte[]{(byte) 125};
     private static final byte[] LBRACKET = new byte[]{(byte) 91};
     private static final byte[] RBRACKET = new byte[]{(byte) 93};
-    private static final char QUOTE = '\"';
+    private static final byte QUOTE = '\"';
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ZERO = "0.0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEGATIVE_ZERO = "-0.0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+    // Every power of ten a double holds exactly
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long[] LONG_POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L, 100000000000000000L};
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // For each ASCII char, 0 if it is written as is, 'u' if it needs a unicode escape, or
+    // else the char that follows the backslash
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int i = 0; i < 32; i++) {
+            ESCAPES[i] = 'u';
+        }
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+    }
+
     private static final TStruct ANONYMOUS_STRUCT = new TStruct();
     private static final TField ANONYMOUS_FIELD = new TField();
     private static final TMessage EMPTY_MESSAGE = new TMessage();
     private static final TSet EMPTY_SET = new TSet();
     private static final TList EMPTY_LIST = new TList();
     private static final TMap EMPTY_MAP = new TMap();
-    private static final String LIST = "list";
-    private static final String SET = "set";
-    private static final String MAP = "map";
-    protected final TSimpleJSONProtocol.Context BASE_CONTEXT = new TSimpleJSONProtocol.Context();
-    protected Stack<Context> writeContextStack_ = new Stack();
-    protected TSimpleJSONProtocol.Context writeContext_;
-
-    protected void pushWriteContext(TSimpleJSONProtocol.Context c) {
-        this.writeContextStack_.push(this.writeContext_);
-        this.writeContext_ = c;
+    private static final byte BASE_CONTEXT = 0;
+    private static final byte STRUCT_CONTEXT = 1;
+    private static final byte LIST_CONTEXT = 2;
+    private static final byte MAP_CONTEXT = 3;
+    // The kind of context at each depth and how many values (keys included) it has so far.
+    // Depth 0 is the base context, outside of any struct, list or map.
+    private final byte[] contextKinds;
+    private final int[] contextCounts;
+    private int depth;
+    private boolean lineDelimited;
+    // Set when the last key came from writeKey, which already wrote the colon
+    private boolean keyWritten;
+    private final int highWaterMark;
+    private byte[] buffer = new byte[1024];
+    private int length;
+    private long bytesWritten;
+
+    protected void pushWriteContext(byte kind) throws TProtocolException {
+        if (this.depth + 1 == this.contextKinds.length) {
+            throw new TProtocolException(TProtocolException.DEPTH_LIMIT,
+                    "Maximum depth of " + (this.contextKinds.length - 1) + " exceeded");
+        }
+        this.depth++;
+        this.contextKinds[this.depth] = kind;
+        this.contextCounts[this.depth] = 0;
     }
 
     protected void popWriteContext() {
-        this.writeContext_ = (TSimpleJSONProtocol.Context) this.writeContextStack_.pop();
+        this.depth--;
+    }
+
+    // Writes whatever has to come before the next value in the current context
+    protected void writeContext() throws TException {
+        int count = this.contextCounts[this.depth]++;
+        if (count == 0) {
+            return;
+        }
+        switch (this.contextKinds[this.depth]) {
+            case LIST_CONTEXT:
+                this.putByte(COMMA);
+                break;
+            case STRUCT_CONTEXT:
+            case MAP_CONTEXT:
+                if ((count & 1) == 0) {
+                    this.putByte(COMMA);
+                } else if (this.keyWritten) {
+                    this.keyWritten = false;
+                } else {
+                    this.putByte(COLON);
+                }
+                break;
+        }
+    }
+
+    protected boolean isMapKey() {
+        return this.contextKinds[this.depth] == MAP_CONTEXT && (this.contextCounts[this.depth] & 1) == 0;
     }
 
     protected void assertContextIsNotMapKey(
             String invalidKeyType) throws TSimpleJSONProtocol.CollectionMapKeyException {
-        if (this.writeContext_.isMapKey()) {
+        if (this.isMapKey()) {
             throw new TSimpleJSONProtocol.CollectionMapKeyException(
                     "Cannot serialize a map with keys that are of type " + invalidKeyType);
         }
     }
 
     public TSimpleJSONProtocol(TTransport trans) {
+        this(trans, DEFAULT_HIGH_WATER_MARK);
+    }
+
+    /**
+     * @param highWaterMark once this many bytes are buffered they are written to the transport,
+     *                      even if the message is not complete yet
+     */
+    public TSimpleJSONProtocol(TTransport trans, int highWaterMark) {
+        this(trans, highWaterMark, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxDepth how deep structs, lists and maps can be nested before writing fails
+     */
+    public TSimpleJSONProtocol(TTransport trans, int highWaterMark, int maxDepth) {
         super(trans);
-        this.writeContext_ = this.BASE_CONTEXT;
+        this.highWaterMark = highWaterMark;
+        this.contextKinds = new byte[maxDepth + 1];
+        this.contextCounts = new int[maxDepth + 1];
+        this.contextKinds[0] = BASE_CONTEXT;
+    }
+
+    /**
+     * Writes a newline after every value that is not inside another one, so values can be sent
+     * back to back and told apart.
+     */
+    public void setLineDelimited(boolean lineDelimited) {
+        this.lineDelimited = lineDelimited;
+    }
+
+    /**
+     * @return the number of bytes written by this protocol so far, including the ones that are
+     * still buffered
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten + this.length;
+    }
+
+    /**
+     * Writes whatever is buffered to the transport. This happens on its own when the outermost
+     * value is complete, so this is only needed when giving up on a message half way.
+     */
+    public void flush() throws TException {
+        if (this.length > 0) {
+            this.trans_.write(this.buffer, 0, this.length);
+            this.bytesWritten += this.length;
+            this.length = 0;
+        }
+    }
+
+    /**
+     * Drops what is buffered and the contexts of a value that was given up on half way, so the
+     * next one starts clean. Bytes that were already written to the transport stay written.
+     */
+    @Override
+    public void reset() {
+        this.length = 0;
+        this.depth = 0;
+        this.keyWritten = false;
+    }
+
+    protected void write(byte[] b) throws TException {
+        this.write(b, 0, b.length);
+    }
+
+    protected void write(byte[] b, int off, int len) throws TException {
+        this.ensureCapacity(len);
+        System.arraycopy(b, off, this.buffer, this.length, len);
+        this.length += len;
+        this.written();
+    }
+
+    private void written() throws TException {
+        if (this.length >= this.highWaterMark) {
+            this.flush();
+        }
+    }
+
+    private void ensureCapacity(int len) {
+        if (this.length + len > this.buffer.length) {
+            byte[] grown = new byte[Math.max(this.buffer.length * 2, this.length + len)];
+            System.arraycopy(this.buffer, 0, grown, 0, this.length);
+            this.buffer = grown;
+        }
+    }
+
+    private void putByte(byte b) {
+        this.ensureCapacity(1);
+        this.buffer[this.length++] = b;
+    }
+
+    private void endValue() throws TException {
+        if (this.depth == 0) {
+            if (this.lineDelimited) {
+                this.putByte(NEWLINE);
+            }
+            this.flush();
+        }
     }
 
     public void writeMessageBegin(TMessage message) throws TException {
-        this.trans_.write(LBRACKET);
-        this.pushWriteContext(new TSimpleJSONProtocol.ListContext());
+        // A message is never inside another value, anything left is from one that failed
+        this.reset();
+        this.write(LBRACKET);
+        this.pushWriteContext(LIST_CONTEXT);
         this.writeString(message.name);
         this.writeByte(message.type);
         this.writeI32(message.seqid);
@@ -67,18 +251,20 @@ public class TSimpleJSONProtocol extends TProtocol {
 
     public void writeMessageEnd() throws TException {
         this.popWriteContext();
-        this.trans_.write(RBRACKET);
+        this.write(RBRACKET);
+        this.endValue();
     }
 
     public void writeStructBegin(TStruct struct) throws TException {
-        this.writeContext_.write();
-        this.trans_.write(LBRACE);
-        this.pushWriteContext(new TSimpleJSONProtocol.StructContext());
+        this.writeContext();
+        this.write(LBRACE);
+        this.pushWriteContext(STRUCT_CONTEXT);
     }
 
     public void writeStructEnd() throws TException {
         this.popWriteContext();
-        this.trans_.write(RBRACE);
+        this.write(RBRACE);
+        this.endValue();
     }
 
     public void writeFieldBegin(TField field) throws TException {
@@ -93,150 +279,336 @@ public class TSimpleJSONProtocol extends TProtocol {
 
     public void writeMapBegin(TMap map) throws TException {
         this.assertContextIsNotMapKey("map");
-        this.writeContext_.write();
-        this.trans_.write(LBRACE);
-        this.pushWriteContext(new TSimpleJSONProtocol.MapContext());
+        this.writeContext();
+        this.write(LBRACE);
+        this.pushWriteContext(MAP_CONTEXT);
     }
 
     public void writeMapEnd() throws TException {
         this.popWriteContext();
-        this.trans_.write(RBRACE);
+        this.write(RBRACE);
+        this.endValue();
     }
 
     public void writeListBegin(TList list) throws TException {
         this.assertContextIsNotMapKey("list");
-        this.writeContext_.write();
-        this.trans_.write(LBRACKET);
-        this.pushWriteContext(new TSimpleJSONProtocol.ListContext());
+        this.writeContext();
+        this.write(LBRACKET);
+        this.pushWriteContext(LIST_CONTEXT);
     }
 
     public void writeListEnd() throws TException {
         this.popWriteContext();
-        this.trans_.write(RBRACKET);
+        this.write(RBRACKET);
+        this.endValue();
     }
 
     public void writeSetBegin(TSet set) throws TException {
         this.assertContextIsNotMapKey("set");
-        this.writeContext_.write();
-        this.trans_.write(LBRACKET);
-        this.pushWriteContext(new TSimpleJSONProtocol.ListContext());
+        this.writeContext();
+        this.write(LBRACKET);
+        this.pushWriteContext(LIST_CONTEXT);
     }
 
     public void writeSetEnd() throws TException {
         this.popWriteContext();
-        this.trans_.write(RBRACKET);
+        this.write(RBRACKET);
+        this.endValue();
     }
 
     public void writeBool(boolean b) throws TException {
-        this.writeContext_.write();
-        this._writeStringData(Boolean.toString(b));
+        this.writeContext();
+        this.write(b ? TRUE : FALSE);
+        this.endValue();
     }
 
     public void writeByte(byte b) throws TException {
-        this.writeI32(b);
+        this.writeI64(b);
     }
 
     public void writeI16(short i16) throws TException {
-        this.writeI32(i16);
+        this.writeI64(i16);
     }
 
     public void writeI32(int i32) throws TException {
-        if (this.writeContext_.isMapKey()) {
-            this.writeString(Integer.toString(i32));
-        } else {
-            this.writeContext_.write();
-            this._writeStringData(Integer.toString(i32));
-        }
-
+        this.writeI64(i32);
     }
 
-    public void _writeStringData(String s) throws TException {
-        try {
-            byte[] uex = s.getBytes("UTF-8");
-            this.trans_.write(uex);
-        } catch (UnsupportedEncodingException var3) {
-            throw new TException("JVM DOES NOT SUPPORT UTF-8");
+    public void writeI64(long i64) throws TException {
+        // Numbers used as map keys are written as strings
+        boolean quote = this.isMapKey();
+        this.writeContext();
+        this.ensureCapacity(22);
+        if (quote) {
+            this.buffer[this.length++] = QUOTE;
+        }
+        this.putLong(i64);
+        if (quote) {
+            this.buffer[this.length++] = QUOTE;
         }
+        this.written();
+        this.endValue();
     }
 
-    public void writeI64(long i64) throws TException {
-        if (this.writeContext_.isMapKey()) {
-            this.writeString(Long.toString(i64));
-        } else {
-            this.writeContext_.write();
-            this._writeStringData(Long.toString(i64));
+    public void writeDouble(double dub) throws TException {
+        boolean quote = this.isMapKey();
+        this.writeContext();
+        this.ensureCapacity(32);
+        if (quote) {
+            this.buffer[this.length++] = QUOTE;
+        }
+        if (!this.putPlainDouble(dub) && !this.putExponentDouble(dub)) {
+            // Only the rare values too large, too small or with too many digits for the fast paths
+            String s = Double.toString(dub);
+            for (int i = 0; i < s.length(); i++) {
+                this.buffer[this.length++] = (byte) s.charAt(i);
+            }
         }
+        if (quote) {
+            this.buffer[this.length++] = QUOTE;
+        }
+        this.written();
+        this.endValue();
+    }
 
+    // Callers must have made room for b already
+    private void put(byte[] b) {
+        System.arraycopy(b, 0, this.buffer, this.length, b.length);
+        this.length += b.length;
     }
 
-    public void writeDouble(double dub) throws TException {
-        if (this.writeContext_.isMapKey()) {
-            this.writeString(Double.toString(dub));
-        } else {
-            this.writeContext_.write();
-            this._writeStringData(Double.toString(dub));
+    private void putLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            this.put(MIN_LONG);
+            return;
+        }
+        if (v < 0) {
+            this.buffer[this.length++] = '-';
+            v = -v;
+        }
+
+        int digits = 1;
+        for (long p = 10; digits < 19 && v >= p; p *= 10) {
+            digits++;
+        }
+        int pos = this.length + digits;
+        this.length = pos;
+        do {
+            this.buffer[--pos] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+    }
+
+    /**
+     * Writes the double the way {@link Double#toString(double)} does for the common case of a
+     * value between 10^-3 and 10^7 with a few decimal places, which is written without an
+     * exponent. The shortest number of decimal places that gets back to the exact same double
+     * is what Double.toString prints too.
+     *
+     * @return false if the value is not one of those, and nothing was written
+     */
+    private boolean putPlainDouble(double v) {
+        if (v == 0) {
+            this.put(Double.doubleToRawLongBits(v) < 0 ? NEGATIVE_ZERO : ZERO);
+            return true;
+        }
+        double abs = Math.abs(v);
+        if (!(abs >= 1e-3 && abs < 1e7)) {
+            return false;
         }
 
+        for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+            double power = POWERS_OF_TEN[scale];
+            double scaled = Math.rint(abs * power);
+            if (scaled / power != abs) {
+                continue;
+            }
+
+            if (v < 0) {
+                this.buffer[this.length++] = '-';
+            }
+            long unscaled = (long) scaled;
+            long divisor = (long) power;
+            this.putLong(unscaled / divisor);
+            this.buffer[this.length++] = '.';
+            if (scale == 0) {
+                this.buffer[this.length++] = '0';
+            } else {
+                long fraction = unscaled % divisor;
+                for (long p = divisor / 10; p > 0; p /= 10) {
+                    this.buffer[this.length++] = (byte) ('0' + (fraction / p) % 10);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the double with an exponent the way {@link Double#toString(double)} does for the
+     * values outside of {@link #putPlainDouble(double)}, like 1.5E-5 or 6.02E23, as long as its
+     * shortest digits times a power of ten up to 10^22 gets back to it. Both are exact doubles
+     * then, so the one multiplication or division rounds like parsing the digits does.
+     * <p>
+     * The digits are the shortest, as Double.toString writes them since Java 19. Before that it
+     * sometimes wrote one more, like 9.999999999999999E22 for 1e23.
+     *
+     * @return false if the value is not one of those, and nothing was written
+     */
+    private boolean putExponentDouble(double v) {
+        double abs = Math.abs(v);
+        if (abs >= 1e-3 && abs < 1e7) {
+            // Double.toString writes these without an exponent
+            return false;
+        }
+        // Exact for powers of ten, anything it is off by is caught below
+        int exponent = (int) Math.floor(Math.log10(abs));
+        for (int digits = 1; digits < LONG_POWERS_OF_TEN.length; digits++) {
+            int scale = digits - 1 - exponent;
+            if (scale >= EXACT_POWERS_OF_TEN.length || -scale >= EXACT_POWERS_OF_TEN.length) {
+                continue;
+            }
+            double scaled = Math.rint(scale >= 0 ? abs * EXACT_POWERS_OF_TEN[scale] : abs / EXACT_POWERS_OF_TEN[-scale]);
+            if (scaled > (1L << 53)
+                    || (scale >= 0 ? scaled / EXACT_POWERS_OF_TEN[scale] : scaled * EXACT_POWERS_OF_TEN[-scale]) != abs) {
+                continue;
+            }
+
+            long unscaled = (long) scaled;
+            int e = exponent;
+            if (unscaled == LONG_POWERS_OF_TEN[digits]) {
+                // Rounded up to the next power of ten, like 9.99...E7 to 1.0E8
+                unscaled /= 10;
+                e++;
+            } else if (unscaled < LONG_POWERS_OF_TEN[digits - 1] || unscaled > LONG_POWERS_OF_TEN[digits]) {
+                return false;
+            }
+
+            if (v < 0) {
+                this.buffer[this.length++] = '-';
+            }
+            // The digits, then the first one is moved in front of the point
+            int start = this.length;
+            this.putLong(unscaled);
+            System.arraycopy(this.buffer, start + 1, this.buffer, start + 2, digits - 1);
+            this.buffer[start + 1] = '.';
+            this.length++;
+            if (digits == 1) {
+                this.buffer[this.length++] = '0';
+            }
+            this.buffer[this.length++] = 'E';
+            this.putLong(e);
+            return true;
+        }
+        return false;
     }
 
     public void writeString(String str) throws TException {
-        this.writeContext_.write();
+        this.writeContext();
+        // Worst case is 6 bytes per char for a unicode escape, plus the quotes
+        this.ensureCapacity(str.length() * 6 + 2);
+        this.length = putString(str, this.buffer, this.length);
+        this.written();
+        this.endValue();
+    }
+
+    /**
+     * Writes a key of a struct or map that was encoded with {@link #encodeKey(String)}. The value
+     * that follows goes straight after it, since the key already ends with the colon.
+     */
+    public void writeKey(byte[] key) throws TException {
+        this.writeContext();
+        this.ensureCapacity(key.length);
+        this.put(key);
+        this.keyWritten = true;
+        this.written();
+    }
+
+    /**
+     * Writes a value that is already JSON, like a message written by another protocol.
+     */
+    public void writeRawValue(byte[] json, int off, int len) throws TException {
+        this.writeContext();
+        this.write(json, off, len);
+        this.endValue();
+    }
+
+    /**
+     * Writes a string that was encoded with {@link #encodeString(String)}.
+     */
+    public void writeEncodedString(byte[] str) throws TException {
+        this.writeContext();
+        this.ensureCapacity(str.length);
+        this.put(str);
+        this.written();
+        this.endValue();
+    }
+
+    /**
+     * @return the quoted and escaped UTF-8 bytes of the string, as {@link #writeString(String)}
+     * would write them
+     */
+    public static byte[] encodeString(String str) {
+        byte[] buf = new byte[str.length() * 6 + 2];
+        return Arrays.copyOf(buf, putString(str, buf, 0));
+    }
+
+    /**
+     * @return the same as {@link #encodeString(String)} followed by a colon, for {@link #writeKey(byte[])}
+     */
+    public static byte[] encodeKey(String name) {
+        byte[] buf = new byte[name.length() * 6 + 3];
+        int pos = putString(name, buf, 0);
+        buf[pos++] = COLON;
+        return Arrays.copyOf(buf, pos);
+    }
+
+    // Callers must have made room for 6 bytes per char plus the quotes
+    private static int putString(String str, byte[] buf, int pos) {
         int length = str.length();
-        StringBuffer escape = new StringBuffer(length + 16);
-        escape.append('\"');
+        buf[pos++] = QUOTE;
 
         for (int i = 0; i < length; ++i) {
             char c = str.charAt(i);
-            String hex;
-            int j;
-            switch (c) {
-                case '\b':
-                    escape.append('\\');
-                    escape.append('b');
-                    continue;
-                case '\t':
-                    escape.append('\\');
-                    escape.append('t');
-                    continue;
-                case '\n':
-                    escape.append('\\');
-                    escape.append('n');
-                    continue;
-                case '\f':
-                    escape.append('\\');
-                    escape.append('f');
-                    continue;
-                case '\r':
-                    escape.append('\\');
-                    escape.append('r');
-                    continue;
-                case '\"':
-                case '\\':
-                    escape.append('\\');
-                    escape.append(c);
-                    continue;
-                default:
-                    if (c >= 32) {
-                        escape.append(c);
-                        continue;
-                    }
-
-                    hex = Integer.toHexString(c);
-                    escape.append('\\');
-                    escape.append('u');
-                    j = 4;
-            }
-
-            while (j > hex.length()) {
-                escape.append('0');
-                --j;
+            if (c < 128) {
+                byte escape = ESCAPES[c];
+                if (escape == 0) {
+                    buf[pos++] = (byte) c;
+                } else if (escape == 'u') {
+                    buf[pos++] = '\\';
+                    buf[pos++] = 'u';
+                    buf[pos++] = '0';
+                    buf[pos++] = '0';
+                    buf[pos++] = HEX[c >> 4];
+                    buf[pos++] = HEX[c & 0xf];
+                } else {
+                    buf[pos++] = '\\';
+                    buf[pos++] = escape;
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, str.charAt(++i));
+                    buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    // Same replacement String.getBytes uses for a broken surrogate pair
+                    buf[pos++] = '?';
+                }
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
             }
-
-            escape.append(hex);
         }
 
-        escape.append('\"');
-        this._writeStringData(escape.toString());
+        buf[pos++] = QUOTE;
+        return pos;
     }
 
     public void writeBinary(ByteBuffer bin) throws TException {
@@ -332,73 +704,6 @@ public class TSimpleJSONProtocol extends TProtocol {
         }
     }
 
-    protected class MapContext extends TSimpleJSONProtocol.StructContext {
-        protected boolean isKey = true;
-
-        protected MapContext() {
-            super();
-        }
-
-        protected void write() throws TException {
-            super.write();
-            this.isKey = !this.isKey;
-        }
-
-        protected boolean isMapKey() {
-            return this.isKey;
-        }
-    }
-
-    protected class StructContext extends TSimpleJSONProtocol.Context {
-        protected boolean first_ = true;
-        protected boolean colon_ = true;
-
-        protected StructContext() {
-            super();
-        }
-
-        protected void write() throws TException {
-            if (this.first_) {
-                this.first_ = false;
-                this.colon_ = true;
-            } else {
-                TSimpleJSONProtocol.this.trans_
-                        .write(this.colon_ ? TSimpleJSONProtocol.COLON : TSimpleJSONProtocol.COMMA);
-                this.colon_ = !this.colon_;
-            }
-
-        }
-    }
-
-    protected class ListContext extends TSimpleJSONProtocol.Context {
-        protected boolean first_ = true;
-
-        protected ListContext() {
-            super();
-        }
-
-        protected void write() throws TException {
-            if (this.first_) {
-                this.first_ = false;
-            } else {
-                TSimpleJSONProtocol.this.trans_.write(TSimpleJSONProtocol.COMMA);
-            }
-
-        }
-    }
-
-    protected class Context {
-        protected Context() {
-        }
-
-        protected void write() throws TException {
-        }
-
-        protected boolean isMapKey() {
-            return false;
-        }
-    }
-
     public static class Factory implements TProtocolFactory {
         public Factory() {
         }
@@ -0,0 +1,112 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.protocol.TField;
+
+import java.util.Arrays;
+
+/**
+ * The values of a parsed message in the order the read methods will ask for them. Every entry
+ * uses one slot of the parallel arrays so nothing is boxed, and the arrays are kept between
+ * messages so a protocol that is reused stops allocating once they are big enough.
+ * <p>
+ * Fields and strings go in {@code objects}, numbers and booleans in {@code longs} or
+ * {@code doubles}, and the headers of containers use {@code types} for the element (or key) type
+ * and {@code longs} for the size (and the value type of a map in the upper 32 bits).
+ */
+class TokenTape {
+
+    private byte[] types = new byte[64];
+    private long[] longs = new long[64];
+    private double[] doubles = new double[64];
+    private Object[] objects = new Object[64];
+    private int size;
+    private int cursor;
+
+    void reset() {
+        Arrays.fill(objects, 0, size, null);
+        size = 0;
+        cursor = 0;
+    }
+
+    void addField(TField field) {
+        objects[slot()] = field;
+    }
+
+    void addObject(Object value) {
+        objects[slot()] = value;
+    }
+
+    void addLong(long value) {
+        longs[slot()] = value;
+    }
+
+    void addDouble(double value) {
+        doubles[slot()] = value;
+    }
+
+    /**
+     * @return the slot of the header, for {@link #setSize(int, int)}
+     */
+    int addList(byte elemType, int size) {
+        int slot = slot();
+        types[slot] = elemType;
+        longs[slot] = size;
+        return slot;
+    }
+
+    int addMap(byte keyType, byte valueType, int size) {
+        int slot = slot();
+        types[slot] = keyType;
+        longs[slot] = ((long) valueType << 32) | size;
+        return slot;
+    }
+
+    /**
+     * Sets the size of a container added with a size of 0, once its elements have been added.
+     */
+    void setSize(int slot, int size) {
+        longs[slot] |= size;
+    }
+
+    private int slot() {
+        if (size == types.length) {
+            int length = size * 2;
+            types = Arrays.copyOf(types, length);
+            longs = Arrays.copyOf(longs, length);
+            doubles = Arrays.copyOf(doubles, length);
+            objects = Arrays.copyOf(objects, length);
+        }
+        return size++;
+    }
+
+    TField nextField() {
+        return (TField) objects[cursor++];
+    }
+
+    Object nextObject() {
+        return objects[cursor++];
+    }
+
+    long nextLong() {
+        return longs[cursor++];
+    }
+
+    double nextDouble() {
+        return doubles[cursor++];
+    }
+
+    /**
+     * The element type of a list or set, or the key type of a map. Call this before the size.
+     */
+    byte peekType() {
+        return types[cursor];
+    }
+
+    byte peekValueType() {
+        return (byte) (longs[cursor] >>> 32);
+    }
+
+    int nextSize() {
+        return (int) longs[cursor++];
+    }
+}
@@ -0,0 +1,125 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TType;
+
+import java.util.Arrays;
+
+/**
+ * Follows the structs and containers being written, so the field a struct writes next can be
+ * found by its id in the struct instead of by its name in the whole schema. Whatever the schema
+ * does not describe has no struct, and neither does anything inside it.
+ */
+final class WriteStack {
+
+    private boolean[] isStruct = new boolean[16];
+    private StructInfo[] structs = new StructInfo[16];
+    // For a struct the type of the field being written, for a container its own type
+    private TypeInfo[] types = new TypeInfo[16];
+    // Whether the last struct or container started in a map was its key
+    private boolean[] keyTurn = new boolean[16];
+    private int depth;
+    private StructInfo root;
+
+    /**
+     * Starts a message, or a struct written on its own.
+     *
+     * @param root the struct that is written first, or null if it is not known
+     */
+    void reset(StructInfo root) {
+        this.root = root;
+        depth = 0;
+    }
+
+    boolean isEmpty() {
+        return depth == 0;
+    }
+
+    void pushStruct() {
+        TypeInfo type = depth == 0 ? null : nextType();
+        push(true, depth == 0 ? root : type == null ? null : type.struct, null);
+    }
+
+    void pushContainer() {
+        push(false, null, depth == 0 ? null : nextType());
+    }
+
+    void pop() {
+        if (depth > 0) {
+            depth--;
+        }
+    }
+
+    /**
+     * @return the field of the struct being written with the id and the name of tField, or null
+     */
+    FieldInfo field(TField tField) {
+        int d = depth - 1;
+        if (d < 0 || !isStruct[d]) {
+            return null;
+        }
+        FieldInfo field = structs[d] == null ? null : structs[d].field(tField.id);
+        if (field != null && !field.name.equals(tField.name)) {
+            // Not the schema the struct was generated from
+            field = null;
+        }
+        types[d] = field == null ? null : field.type;
+        return field;
+    }
+
+    /**
+     * @return the type of the struct or container that is being started in the innermost one
+     */
+    private TypeInfo nextType() {
+        int d = depth - 1;
+        TypeInfo type = types[d];
+        if (isStruct[d] || type == null) {
+            return type;
+        }
+        if (type.elemType != null) {
+            return type.elemType;
+        }
+        // Only structs and containers are seen here, so a map of them to numbers only has keys
+        if (!isNested(type.keyType)) {
+            return type.valueType;
+        }
+        if (!isNested(type.valueType)) {
+            return type.keyType;
+        }
+        keyTurn[d] = !keyTurn[d];
+        return keyTurn[d] ? type.keyType : type.valueType;
+    }
+
+    private static boolean isNested(TypeInfo type) {
+        if (type == null) {
+            return false;
+        }
+        switch (type.ttype) {
+            case TType.STRUCT:
+            case TType.MAP:
+            case TType.SET:
+            case TType.LIST:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void push(boolean struct, StructInfo info, TypeInfo type) {
+        if (depth == isStruct.length) {
+            int size = depth * 2;
+            isStruct = Arrays.copyOf(isStruct, size);
+            structs = Arrays.copyOf(structs, size);
+            types = Arrays.copyOf(types, size);
+            keyTurn = Arrays.copyOf(keyTurn, size);
+        }
+        isStruct[depth] = struct;
+        structs[depth] = info;
+        types[depth] = type;
+        keyTurn[depth] = false;
+        depth++;
+    }
+}
@@ -0,0 +1,78 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchProcessorTest {
+
+    private static final AuthenticationService.Iface HANDLER = (email, password) -> {
+        if (email.equals("crash")) {
+            throw new IllegalStateException("Handler failed");
+        }
+        return new LoginResult().setAuthToken(email + " " + password);
+    };
+
+    private static final HumanReadableJsonProtocol.Factory FACTORY = new HumanReadableJsonProtocol.Factory(
+            HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json"), "AuthenticationService")
+            .messageIds(true);
+
+    private static final String BATCH = "["
+            + "{\"method\":\"login\",\"id\":1,\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}},"
+            + "{\"method\":\"login\",\"id\":2,\"arguments\":{\"email\":\"crash\",\"password\":\"p\"}},"
+            + "{\"method\":\"login\",\"id\":3,\"arguments\":{\"email\":5}}]";
+
+    private static JSONArray process(BatchProcessor processor) throws TException {
+        TMemoryBuffer response = new TMemoryBuffer(256);
+        processor.process(FACTORY.getProtocol(new TMemoryInputTransport(BATCH.getBytes(StandardCharsets.UTF_8))),
+                FACTORY.getProtocol(response));
+        return new JSONArray(new String(response.getArray(), 0, response.length(), StandardCharsets.UTF_8));
+    }
+
+    private static void assertReplies(JSONArray replies) {
+        assertEquals(3, replies.length());
+
+        JSONObject success = replies.getJSONObject(0);
+        assertEquals("login", success.getString("method"));
+        assertEquals(1, success.getInt("id"));
+        assertEquals("a@b.c p", success.getJSONObject("result").getJSONObject("success").getString("authToken"));
+
+        // The failures say which call they are for
+        JSONObject failure = replies.getJSONObject(1);
+        assertEquals("login", failure.getString("method"));
+        assertEquals(2, failure.getInt("id"));
+        assertEquals("Handler failed", failure.getJSONObject("exception").getString("message"));
+
+        JSONObject invalid = replies.getJSONObject(2);
+        assertEquals("login", invalid.getString("method"));
+        assertEquals(3, invalid.getInt("id"));
+        assertTrue(invalid.toString(), invalid.has("exception"));
+    }
+
+    @Test
+    public void answersEveryCallOfABatchInOrder() throws TException {
+        assertReplies(process(new BatchProcessor(new AuthenticationService.Processor<>(HANDLER), FACTORY)));
+    }
+
+    @Test
+    public void answersTheCallsOfABatchRunAtTheSameTime() throws TException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertReplies(process(new BatchProcessor(new AuthenticationService.Processor<>(HANDLER), FACTORY, executor)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpGatewayTest {
+
+    private static final String LOGIN = "{\"method\":\"login\",\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p@ss\"}}";
+
+    private HttpGateway gateway;
+
+    @Before
+    public void start() throws IOException {
+        AuthenticationService.Processor<AuthenticationService.Iface> processor =
+                new AuthenticationService.Processor<>((email, password) -> {
+                    if (email.equals("crash")) {
+                        throw new IllegalStateException("internal detail");
+                    }
+                    return new LoginResult().setAuthToken(email + " " + password);
+                });
+        HumanReadableJsonProtocol.Factory factory = new HumanReadableJsonProtocol.Factory(
+                HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json"), "AuthenticationService");
+        gateway = new HttpGateway(new InetSocketAddress("127.0.0.1", 0), processor, factory)
+                .workers(2)
+                .start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        gateway.close();
+    }
+
+    /**
+     * Sends the parts with a pause in between, so they arrive in separate reads, and returns all
+     * that came back until the gateway closed the connection.
+     */
+    private String exchange(String... parts) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", gateway.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            for (String part : parts) {
+                out.write(part.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(20);
+            }
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int read; (read = in.read(buf)) != -1; ) {
+                response.write(buf, 0, read);
+            }
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String chunkedHeader(String connection) {
+        return "POST / HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\nConnection: " + connection + "\r\n\r\n";
+    }
+
+    private static String chunk(String data) {
+        return Integer.toHexString(data.getBytes(StandardCharsets.UTF_8).length) + "\r\n" + data + "\r\n";
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void answersARequestWithAContentLength() throws Exception {
+        String response = exchange("POST / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\nContent-Length: "
+                + LOGIN.length() + "\r\n\r\n" + LOGIN);
+
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response, response.contains("\"authToken\":\"a@b.c p@ss\""));
+    }
+
+    @Test
+    public void joinsTheChunksOfABody() throws Exception {
+        String response = exchange(chunkedHeader("close"),
+                chunk(LOGIN.substring(0, 1)),
+                chunk(LOGIN.substring(1, 20)).substring(0, 5),
+                chunk(LOGIN.substring(1, 20)).substring(5),
+                // A chunk extension and a chunk size in upper case
+                Integer.toHexString(LOGIN.length() - 20).toUpperCase() + ";name=value\r\n" + LOGIN.substring(20) + "\r",
+                "\n0\r\nX-Trailer: ignored\r\n\r\n");
+
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response, response.contains("\"authToken\":\"a@b.c p@ss\""));
+    }
+
+    @Test
+    public void answersChunkedRequestsSentBackToBack() throws Exception {
+        String response = exchange(chunkedHeader("keep-alive") + chunk(LOGIN) + "0\r\n\r\n"
+                + chunkedHeader("close") + chunk(LOGIN.substring(0, 30)) + chunk(LOGIN.substring(30)) + "0\r\n\r\n");
+
+        assertEquals(response, 2, count(response, "HTTP/1.1 200 OK\r\n"));
+        assertEquals(response, 2, count(response, "\"authToken\":\"a@b.c p@ss\""));
+    }
+
+    @Test
+    public void turnsDownMalformedChunks() throws Exception {
+        String[] bodies = {
+                "zz\r\n" + LOGIN + "\r\n0\r\n\r\n",
+                "\r\n" + LOGIN + "\r\n0\r\n\r\n",
+                Integer.toHexString(LOGIN.length()) + "\r\n" + LOGIN + "XX0\r\n\r\n",
+                "7fffffff\r\n" + LOGIN};
+        for (String body : bodies) {
+            String response = exchange(chunkedHeader("keep-alive") + body);
+            assertTrue(body, response.startsWith("HTTP/1.1 400 Bad Request\r\n"));
+            assertTrue(body, response.contains("Connection: close"));
+        }
+    }
+
+    @Test
+    public void keepsInternalsOutOfErrors() throws Exception {
+        String invalid = "{\"method\":\"login\",\"arguments\":{\"email\":1}}";
+        String response = exchange(chunkedHeader("close") + chunk(invalid) + "0\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 400 Bad Request\r\n"));
+        assertFalse(response, response.contains("Exception"));
+
+        String crash = "{\"method\":\"login\",\"arguments\":{\"email\":\"crash\",\"password\":\"\"}}";
+        response = exchange(chunkedHeader("keep-alive") + chunk(crash) + "0\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 500 Internal Server Error\r\n"));
+        assertFalse(response, response.contains("internal detail"));
+    }
+}
@@ -0,0 +1,169 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.AuthenticationServiceJsonCodecs;
+import com.devansh.humanthrift.generated.LoginResult;
+import com.devansh.humanthrift.generated.LoginResultJsonCodec;
+import com.devansh.humanthrift.generated.SystemException;
+import com.devansh.humanthrift.generated.User;
+import com.devansh.humanthrift.generated.UserJsonCodec;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.json.JSONArray;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonCodecProcessorTest {
+
+    private static final JSONArray METADATA = HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json");
+
+    private static final AuthenticationService.Iface HANDLER = (email, password) -> {
+        if (password.isEmpty()) {
+            throw new SystemException(401, "Unknown User");
+        }
+        return new LoginResult().setAuthToken(email + " " + password)
+                .setCurrentUser(new User().setId("1").setEmail(email).setValidatedAt(42));
+    };
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private static JsonReader reader(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        JsonReader reader = new JsonReader();
+        reader.reset(bytes, 0, bytes.length);
+        return reader;
+    }
+
+    private static String process(JsonCodecProcessor<AuthenticationService.Iface> processor,
+                                  HumanReadableJsonProtocol.Factory factory, String request) throws TException {
+        TMemoryBuffer response = new TMemoryBuffer(256);
+        processor.process(factory.getProtocol(new TMemoryInputTransport(request.getBytes(StandardCharsets.UTF_8))),
+                factory.getProtocol(response));
+        return new String(response.getArray(), 0, response.length(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void roundTripsAStruct() throws TException {
+        LoginResult result = new LoginResult().setAuthToken("té\"\n")
+                .setCurrentUser(new User().setId("1").setEmail("a@b.c").setValidatedAt(Long.MIN_VALUE));
+        TMemoryBuffer buffer = new TMemoryBuffer(256);
+        TSimpleJSONProtocol out = new TSimpleJSONProtocol(buffer);
+        LoginResultJsonCodec.INSTANCE.write(result, out);
+        out.getTransport().flush();
+
+        String json = new String(buffer.getArray(), 0, buffer.length(), StandardCharsets.UTF_8);
+        LoginResult read = LoginResultJsonCodec.INSTANCE.read(reader(json));
+        assertEquals(result, read);
+        // Unset fields are left out, not written as null
+        assertFalse(json, json.contains("name"));
+        assertNull(read.getCurrentUser().getName());
+    }
+
+    @Test
+    public void skipsUnknownFieldsOnlyWhenAsked() throws TException {
+        String json = "{\"id\":\"1\",\"nickname\":{\"a\":[1,{\"b\":null}]},\"name\":\"n\"}";
+        try {
+            UserJsonCodec.INSTANCE.read(reader(json));
+            fail();
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+
+        SkippedFields skipped = new SkippedFields();
+        JsonReader reader = reader(json);
+        reader.skippedFields(skipped);
+        User user = UserJsonCodec.INSTANCE.read(reader);
+        assertEquals(new User().setId("1").setName("n"), user);
+        assertEquals(1, skipped.count("User", "nickname"));
+    }
+
+    @Test
+    public void runsCallsWithTheGeneratedCodecs() throws TException {
+        JsonCodecProcessor<AuthenticationService.Iface> processor = new JsonCodecProcessor<>(
+                new AuthenticationService.Processor<>(HANDLER), HANDLER, AuthenticationServiceJsonCodecs.METHODS);
+        HumanReadableJsonProtocol.Factory factory = new HumanReadableJsonProtocol.Factory(METADATA, "AuthenticationService")
+                .messageIds(true);
+
+        String response = process(processor, factory,
+                "{\"method\":\"login\",\"id\":7,\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}");
+        assertEquals("{\"method\":\"login\",\"id\":7,\"result\":{\"success\":{\"authToken\":\"a@b.c p\","
+                + "\"currentUser\":{\"id\":\"1\",\"email\":\"a@b.c\",\"validatedAt\":42}}}}", response);
+
+        response = process(processor, factory,
+                "{\"method\":\"login\",\"id\":8,\"arguments\":{\"email\":\"a@b.c\",\"password\":\"\"}}");
+        assertEquals("{\"method\":\"login\",\"id\":8,\"result\":{\"err\":{\"errorCode\":401,"
+                + "\"message\":\"Unknown User\"}}}", response);
+    }
+
+    @Test
+    public void fallsBackToTheProcessorWithoutACodec() throws TException {
+        // No generated codecs and too few calls for a codec made at runtime
+        JsonCodecProcessor<AuthenticationService.Iface> processor = new JsonCodecProcessor<>(
+                new AuthenticationService.Processor<>(HANDLER), HANDLER, Collections.emptyMap()).threshold(100);
+        HumanReadableJsonProtocol.Factory factory = new HumanReadableJsonProtocol.Factory(METADATA, "AuthenticationService");
+
+        String response = process(processor, factory,
+                "{\"method\":\"login\",\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}");
+        assertTrue(response, response.contains("\"authToken\":\"a@b.c p\""));
+    }
+
+    @Test
+    public void turnsDownAProtocolForEveryService() {
+        JsonCodecProcessor<AuthenticationService.Iface> processor = new JsonCodecProcessor<>(
+                new AuthenticationService.Processor<>(HANDLER), HANDLER, AuthenticationServiceJsonCodecs.METHODS);
+        HumanReadableJsonProtocol.Factory factory = new HumanReadableJsonProtocol.Factory(CompiledSchema.compile(METADATA));
+        try {
+            process(processor, factory, "{\"method\":\"AuthenticationService:login\",\"arguments\":{}}");
+            fail();
+        } catch (TException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("single service"));
+        }
+    }
+
+    @Test
+    public void generatesValidationAndLeavesOutWhatIsNotSupported() throws IOException {
+        JSONArray metadata = new JSONArray("[{\"name\":\"test\",\"structs\":["
+                + "{\"name\":\"Account\",\"fields\":[{\"key\":1,\"name\":\"id\",\"typeId\":\"string\",\"required\":\"required\"},"
+                + "{\"key\":2,\"name\":\"age\",\"typeId\":\"i32\",\"required\":\"optional\"}]},"
+                + "{\"name\":\"Choice\",\"isUnion\":true,\"fields\":[{\"key\":1,\"name\":\"a\",\"typeId\":\"string\"}]},"
+                + "{\"name\":\"Holder\",\"fields\":[{\"key\":1,\"name\":\"choice\",\"typeId\":\"union\","
+                + "\"type\":{\"typeId\":\"union\",\"class\":\"test.Choice\"}}]},"
+                + "{\"name\":\"Blob\",\"fields\":[{\"key\":1,\"name\":\"data\",\"typeId\":\"binary\"}]}],"
+                + "\"services\":[{\"name\":\"test.Store\",\"functions\":["
+                + "{\"name\":\"put\",\"returnTypeId\":\"void\",\"arguments\":[{\"key\":1,\"name\":\"account\","
+                + "\"typeId\":\"struct\",\"type\":{\"typeId\":\"struct\",\"class\":\"test.Account\"}}],\"exceptions\":[]},"
+                + "{\"name\":\"upload\",\"returnTypeId\":\"void\",\"arguments\":[{\"key\":1,\"name\":\"data\","
+                + "\"typeId\":\"binary\"}],\"exceptions\":[]}]}]}]");
+        Path output = temp.getRoot().toPath();
+        new JsonCodecGenerator(metadata, "test.generated").generate(output);
+
+        Path dir = output.resolve("test/generated");
+        String account = new String(Files.readAllBytes(dir.resolve("AccountJsonCodec.java")), StandardCharsets.UTF_8);
+        // Once after reading and once before writing, which checks the required fields
+        assertEquals(account, 2, account.split("value\\.validate\\(\\);", -1).length - 1);
+        assertTrue(account, account.contains("if (value.isSetAge())"));
+        assertFalse(Files.exists(dir.resolve("ChoiceJsonCodec.java")));
+        assertFalse(Files.exists(dir.resolve("HolderJsonCodec.java")));
+        assertFalse(Files.exists(dir.resolve("BlobJsonCodec.java")));
+
+        String service = new String(Files.readAllBytes(dir.resolve("StoreJsonCodecs.java")), StandardCharsets.UTF_8);
+        assertTrue(service, service.contains("methods.put(\"put\""));
+        assertFalse(service, service.contains("methods.put(\"upload\""));
+    }
+}
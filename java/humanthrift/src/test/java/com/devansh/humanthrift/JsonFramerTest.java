@@ -0,0 +1,121 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonFramerTest {
+
+    /**
+     * Hands out the bytes a few at a time, like a socket might.
+     */
+    private static final class TrickleTransport extends TTransport {
+        private final byte[] bytes;
+        private final int chunk;
+        private int pos;
+
+        TrickleTransport(String input, int chunk) {
+            this.bytes = input.getBytes(StandardCharsets.UTF_8);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            int amt = Math.min(Math.min(len, chunk), bytes.length - pos);
+            System.arraycopy(bytes, pos, buf, off, amt);
+            pos += amt;
+            return amt;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static List<String> frames(String input, int chunk) throws TProtocolException {
+        JsonFramer framer = new JsonFramer();
+        TTransport transport = new TrickleTransport(input, chunk);
+        List<String> frames = new ArrayList<>();
+        while (true) {
+            try {
+                int length = framer.next(transport);
+                frames.add(new String(framer.buffer(), framer.start(), length, StandardCharsets.UTF_8));
+            } catch (TTransportException e) {
+                assertEquals("No more messages", e.getMessage());
+                return frames;
+            }
+        }
+    }
+
+    @Test
+    public void splitsMessagesSentBackToBack() throws TProtocolException {
+        String first = "{\"method\":\"login\",\"arguments\":{\"email\":\"a}b]c\\\"{\"}}";
+        String second = "[{\"method\":\"login\"},{\"method\":\"x\\\\\"}]";
+        String third = "{}";
+        for (int chunk : new int[]{1, 2, 7, 4096}) {
+            assertEquals(Arrays.asList(first, second, third),
+                    frames(first + "\n" + second + " \r\n\t" + third + "\n", chunk));
+        }
+    }
+
+    @Test
+    public void growsForMessagesLargerThanTheBuffer() throws TProtocolException {
+        StringBuilder large = new StringBuilder("{\"password\":\"");
+        for (int i = 0; i < 5000; i++) {
+            large.append("\\\"{[");
+        }
+        large.append("\"}");
+        String message = large.toString();
+        for (int chunk : new int[]{1, 333, 4096}) {
+            assertEquals(Arrays.asList(message, message, "{}"), frames(message + message + "{}", chunk));
+        }
+    }
+
+    @Test
+    public void rejectsWhatIsNotAMessage() throws TException {
+        JsonFramer framer = new JsonFramer();
+        TTransport transport = new TrickleTransport("{} x", 100);
+        assertEquals(2, framer.next(transport));
+        try {
+            framer.next(transport);
+            fail();
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+    }
+
+    @Test
+    public void failsOnAMessageCutShort() throws TProtocolException {
+        try {
+            new JsonFramer().next(new TrickleTransport("{\"method\":", 3));
+            fail();
+        } catch (TTransportException e) {
+            assertEquals(TTransportException.END_OF_FILE, e.getType());
+            assertEquals("Message is incomplete", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.protocol.TProtocolException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonReaderTest {
+
+    private static JsonReader reader(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        JsonReader reader = new JsonReader();
+        reader.reset(bytes, 0, bytes.length);
+        return reader;
+    }
+
+    private static void assertInvalidLong(String json) {
+        try {
+            long value = reader(json).readLong();
+            fail(json + " was read as " + value);
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+    }
+
+    private static void assertInvalidDouble(String json) {
+        try {
+            double value = reader(json).readDouble();
+            fail(json + " was read as " + value);
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+    }
+
+    private static void assertReadsLikeParseDouble(String json) throws TProtocolException {
+        double expected = Double.parseDouble(json);
+        double actual = reader(json).readDouble();
+        assertEquals(json, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+    }
+
+    @Test
+    public void readsIntegerLimits() throws TProtocolException {
+        assertEquals(Long.MIN_VALUE, reader("-9223372036854775808").readLong());
+        assertEquals(Long.MAX_VALUE, reader("9223372036854775807").readLong());
+        assertEquals(Integer.MIN_VALUE, reader("-2147483648").readInt());
+        assertEquals(Integer.MAX_VALUE, reader("2147483647").readInt());
+        assertEquals(Short.MIN_VALUE, reader("-32768").readShort());
+        assertEquals(Byte.MAX_VALUE, reader("127").readByte());
+    }
+
+    @Test
+    public void rejectsIntegersOutOfRange() {
+        assertInvalidLong("9223372036854775808");
+        assertInvalidLong("-9223372036854775809");
+        assertInvalidLong("1e19");
+        assertInvalidLong("1e999999999");
+        try {
+            reader("2147483648").readInt();
+            fail();
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+    }
+
+    @Test
+    public void dropsTheFractionOfIntegers() throws TProtocolException {
+        assertEquals(1, reader("1.0").readLong());
+        assertEquals(1, reader("1.5").readLong());
+        assertEquals(-1, reader("-1.5").readInt());
+        assertEquals(1000000000000000000L, reader("1e18").readLong());
+        assertEquals(0, reader("0.5").readLong());
+    }
+
+    @Test(timeout = 1000)
+    public void readsTinyExponentsAsZeroWithoutExpandingThem() throws TProtocolException {
+        assertEquals(0, reader("1e-999999999").readLong());
+        assertEquals(0, reader("-123e-999999999").readInt());
+    }
+
+    @Test
+    public void rejectsMalformedIntegers() {
+        assertInvalidLong("-");
+        assertInvalidLong("1e");
+        assertInvalidLong("1-2");
+    }
+
+    @Test
+    public void readsDoublesLikeParseDouble() throws TProtocolException {
+        String[] values = {
+                "0", "-0", "0.0", "-0.0", "0.1", "-0.1", "0.3", "1.5", "123.456", "3.141592653589793",
+                "1e22", "1e23", "1e-22", "1e-23", "1.7976931348623157e308", "4.9e-324", "2.2250738585072014E-308",
+                "9007199254740991", "9007199254740992", "9007199254740993", "-9007199254740993",
+                "123456789012345678901234567890", "1E5", "1e+5", "2.5e-3", "1e-400",
+                "9223372036854775807", "-9223372036854775808"};
+        for (String value : values) {
+            assertReadsLikeParseDouble(value);
+        }
+    }
+
+    @Test
+    public void readsRandomDoublesLikeParseDouble() throws TProtocolException {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                assertReadsLikeParseDouble(Double.toString(value));
+            }
+            // Short mantissas with small exponents, which take the fast path
+            assertReadsLikeParseDouble(random.nextInt(1000000) + "e" + (random.nextInt(45) - 22));
+            assertReadsLikeParseDouble((random.nextLong() % 10000000000000000L) + "." + random.nextInt(1000));
+        }
+    }
+
+    @Test
+    public void rejectsDoublesJsonCannotHold() {
+        assertInvalidDouble("1e400");
+        assertInvalidDouble("-1e400");
+        assertInvalidDouble("-");
+        assertInvalidDouble("1e");
+        try {
+            reader("NaN").readDouble();
+            fail();
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+        try {
+            reader("-Infinity").readDouble();
+            fail();
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+    }
+
+    @Test
+    public void readsQuotedNumbers() throws TProtocolException {
+        assertEquals(42, reader("\"42\"").readQuotedInt());
+        assertEquals(0.1, reader("\"0.1\"").readQuotedDouble(), 0);
+    }
+
+    @Test
+    public void countsTheContainersInsideAContainerInOnePass() throws TProtocolException {
+        String json = "[[1, 2], {\"a\": [3], \"b\": \"],\"}, [], {}]";
+        JsonReader reader = reader(json);
+        reader.expect('[');
+        ContainerSizes sizes = new ContainerSizes();
+        reader.count(sizes);
+
+        assertEquals(1, reader.position());
+        assertEquals(4, sizes.find(1));
+        assertEquals(2, sizes.find(json.indexOf("[1") + 1));
+        // The object is skipped, the array in it is still found
+        assertEquals(1, sizes.find(json.indexOf("[3") + 1));
+        assertEquals(0, sizes.find(json.indexOf("[]") + 1));
+        assertEquals(0, sizes.find(json.indexOf("{}") + 1));
+        assertEquals(-1, sizes.find(json.length()));
+    }
+}
@@ -0,0 +1,135 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MethodLimitProcessorTest {
+
+    private static final String LOGIN = "{\"method\":\"login\",\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}";
+
+    private static final HumanReadableJsonProtocol.Factory FACTORY = new HumanReadableJsonProtocol.Factory(
+            HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json"), "AuthenticationService");
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile String handlerThread;
+
+    /**
+     * A login that waits to be released, so it holds on to its place under the limit.
+     */
+    private TProcessor processor() {
+        return new MethodLimitProcessor(new AuthenticationService.Processor<>((email, password) -> {
+            handlerThread = Thread.currentThread().getName();
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new LoginResult().setAuthToken(email);
+        })).limit("login", 1).timeout(50, TimeUnit.MILLISECONDS);
+    }
+
+    private static JSONObject call(TProcessor processor) throws TException {
+        TMemoryBuffer response = new TMemoryBuffer(256);
+        processor.process(FACTORY.getProtocol(new TMemoryInputTransport(LOGIN.getBytes(StandardCharsets.UTF_8))),
+                FACTORY.getProtocol(response));
+        return new JSONObject(new String(response.getArray(), 0, response.length(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void turnsDownACallOverTheLimit() throws Exception {
+        TProcessor processor = processor();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JSONObject> first = executor.submit(() -> call(processor));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            JSONObject rejected = call(processor);
+            assertEquals("Too many calls to login", rejected.getJSONObject("exception").getString("message"));
+
+            release.countDown();
+            assertEquals("a@b.c", first.get(5, TimeUnit.SECONDS)
+                    .getJSONObject("result").getJSONObject("success").getString("authToken"));
+            // The place is given back once the call is done
+            assertEquals("a@b.c", call(processor).getJSONObject("result").getJSONObject("success").getString("authToken"));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static String post(int port, String body) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            out.write(("POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + bytes.length
+                    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int read; (read = in.read(buf)) != -1; ) {
+                response.write(buf, 0, read);
+            }
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void limitsCallsOnTheThreadsOfTheGateway() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (HttpGateway gateway = new HttpGateway(new InetSocketAddress("127.0.0.1", 0), processor(), FACTORY)
+                .virtualThreads(true)
+                .start()) {
+            Future<String> first = executor.submit(() -> post(gateway.getPort(), LOGIN));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            // Without virtual threads the gateway falls back to its workers
+            assertEquals(!hasVirtualThreads(), handlerThread.startsWith("http-gateway-worker-"));
+
+            String rejected = post(gateway.getPort(), LOGIN);
+            assertTrue(rejected, rejected.contains("Too many calls to login"));
+
+            release.countDown();
+            String response = first.get(5, TimeUnit.SECONDS);
+            assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            assertTrue(response, response.contains("\"authToken\":\"a@b.c\""));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiThriftProtocolTest {
+
+    private static final TProcessor PROCESSOR = new AuthenticationService.Processor<AuthenticationService.Iface>(
+            (email, password) -> new LoginResult().setAuthToken(email + " " + password));
+
+    private static MultiThriftProtocol.Factory sniffing() {
+        return new MultiThriftProtocol.Factory(
+                HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json"), "AuthenticationService")
+                .sniffing(true);
+    }
+
+    private static void writeLogin(TProtocol protocol, String email) throws TException {
+        protocol.writeMessageBegin(new TMessage("login", TMessageType.CALL, 1));
+        new AuthenticationService.login_args(email, "p@ss").write(protocol);
+        protocol.writeMessageEnd();
+        protocol.getTransport().flush();
+    }
+
+    private static String readLoginResult(TProtocol protocol) throws TException {
+        assertEquals(TMessageType.REPLY, protocol.readMessageBegin().type);
+        AuthenticationService.login_result result = new AuthenticationService.login_result();
+        result.read(protocol);
+        protocol.readMessageEnd();
+        return result.getSuccess().getAuthToken();
+    }
+
+    /**
+     * Reads and answers what is in the transport the way a server would, with the protocols for
+     * reading and writing made for the same transport.
+     */
+    private static void process(MultiThriftProtocol.Factory factory, TMemoryBuffer transport) throws TException {
+        PROCESSOR.process(factory.getProtocol(transport), factory.getProtocol(transport));
+    }
+
+    @Test
+    public void detectsPlainThriftProtocolsAndAnswersInKind() throws TException {
+        TProtocolFactory[] clients = {
+                new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()};
+        for (TProtocolFactory client : clients) {
+            MultiThriftProtocol.Factory factory = sniffing();
+            TMemoryBuffer transport = new TMemoryBuffer(256);
+            TProtocol protocol = client.getProtocol(transport);
+
+            // The second message on the connection goes to the protocol detected for the first
+            for (String email : new String[]{"a@b.c", "d@e.f"}) {
+                writeLogin(protocol, email);
+                process(factory, transport);
+                assertEquals(email + " p@ss", readLoginResult(protocol));
+            }
+        }
+    }
+
+    @Test
+    public void detectsHumanJson() throws TException {
+        TMemoryBuffer transport = new TMemoryBuffer(256);
+        transport.write("{\"method\":\"login\",\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p@ss\"}}"
+                .getBytes(StandardCharsets.UTF_8));
+        process(sniffing(), transport);
+
+        String response = new String(transport.getArray(), 0, transport.length(), StandardCharsets.UTF_8);
+        assertTrue(response, response.startsWith("{"));
+        assertTrue(response, response.contains("\"authToken\":\"a@b.c p@ss\""));
+    }
+
+    @Test
+    public void keepsSendingTheTypeWhenTheClientDoes() throws TException {
+        MultiThriftProtocol.Factory factory = sniffing();
+        TMemoryBuffer transport = new TMemoryBuffer(256);
+        TProtocol protocol = new TCompactProtocol(transport);
+        for (String email : new String[]{"a@b.c", "d@e.f"}) {
+            transport.write(new byte[]{'2'});
+            writeLogin(protocol, email);
+            process(factory, transport);
+            byte[] type = new byte[1];
+            transport.readAll(type, 0, 1);
+            assertEquals('2', type[0]);
+            assertEquals(email + " p@ss", readLoginResult(protocol));
+        }
+    }
+
+    @Test
+    public void rejectsWhatIsNoProtocol() throws TException {
+        TMemoryBuffer transport = new TMemoryBuffer(16);
+        transport.write("x{}".getBytes(StandardCharsets.UTF_8));
+        try {
+            sniffing().getProtocol(transport).readMessageBegin();
+            fail();
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.INVALID_DATA, e.getType());
+        }
+    }
+}
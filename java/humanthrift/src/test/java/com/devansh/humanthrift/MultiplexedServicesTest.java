@@ -0,0 +1,85 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.apache.thrift.TException;
+import org.apache.thrift.TMultiplexedProcessor;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MultiplexedServicesTest {
+
+    private static final HumanReadableJsonProtocol.Factory FACTORY = new HumanReadableJsonProtocol.Factory(
+            CompiledSchema.compile(metadata())).messageIds(true);
+
+    /**
+     * The auth metadata, and a copy of it with the service renamed to AdminService.
+     */
+    private static JSONArray metadata() {
+        JSONArray metadata = HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json");
+        JSONObject admin = new JSONObject(metadata.getJSONObject(0).toString()
+                .replace("auth.", "admin.").replace("AuthenticationService", "AdminService"));
+        admin.put("name", "admin");
+        return metadata.put(admin);
+    }
+
+    private static TMultiplexedProcessor processor() {
+        TMultiplexedProcessor processor = new TMultiplexedProcessor();
+        processor.registerProcessor("AuthenticationService", new AuthenticationService.Processor<>(
+                (email, password) -> new LoginResult().setAuthToken("user " + email)));
+        processor.registerProcessor("AdminService", new AuthenticationService.Processor<>(
+                (email, password) -> new LoginResult().setAuthToken("admin " + email)));
+        return processor;
+    }
+
+    private static JSONObject call(String request) throws TException {
+        TMemoryBuffer response = new TMemoryBuffer(256);
+        processor().process(FACTORY.getProtocol(new TMemoryInputTransport(request.getBytes(StandardCharsets.UTF_8))),
+                FACTORY.getProtocol(response));
+        return new JSONObject(new String(response.getArray(), 0, response.length(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void routesServiceColonMethod() throws TException {
+        JSONObject reply = call("{\"method\":\"AdminService:login\",\"id\":4,"
+                + "\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}");
+        // The processor of the service answers, it does not know the name of its service
+        assertEquals("login", reply.getString("method"));
+        assertEquals(4, reply.getInt("id"));
+        assertEquals("admin a@b.c", reply.getJSONObject("result").getJSONObject("success").getString("authToken"));
+
+        reply = call("{\"method\":\"AuthenticationService:login\",\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}");
+        assertEquals("user a@b.c", reply.getJSONObject("result").getJSONObject("success").getString("authToken"));
+    }
+
+    @Test
+    public void routesTheServiceOfTheMessage() throws TException {
+        JSONObject reply = call("{\"service\":\"AdminService\",\"method\":\"login\",\"id\":5,"
+                + "\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}");
+        assertEquals(5, reply.getInt("id"));
+        assertEquals("admin a@b.c", reply.getJSONObject("result").getJSONObject("success").getString("authToken"));
+
+        reply = call("{\"service\":\"AuthenticationService\",\"method\":\"login\","
+                + "\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}");
+        assertEquals("user a@b.c", reply.getJSONObject("result").getJSONObject("success").getString("authToken"));
+    }
+
+    @Test
+    public void turnsDownAMethodOfMoreThanOneService() throws TException {
+        try {
+            call("{\"method\":\"login\",\"arguments\":{\"email\":\"a@b.c\",\"password\":\"p\"}}");
+            fail();
+        } catch (TException e) {
+            assertEquals("More than one service has a method login, send the \"service\" too",
+                    e.getCause().getCause().getMessage());
+        }
+    }
+}
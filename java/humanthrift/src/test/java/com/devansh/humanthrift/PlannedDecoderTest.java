@@ -0,0 +1,113 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.generated.AuthenticationService;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PlannedDecoderTest {
+
+    private static final CompiledSchema SCHEMA = CompiledSchema.compile(new JSONArray("[{\"name\":\"test\","
+            + "\"structs\":[{\"name\":\"Item\",\"fields\":[{\"key\":1,\"name\":\"id\",\"typeId\":\"i32\"}]}],"
+            + "\"services\":[{\"name\":\"test.Store\",\"functions\":[{\"name\":\"put\",\"returnTypeId\":\"void\","
+            + "\"arguments\":["
+            + "{\"key\":1,\"name\":\"ids\",\"typeId\":\"list\",\"type\":{\"typeId\":\"list\",\"elemTypeId\":\"i32\"}},"
+            + "{\"key\":2,\"name\":\"counts\",\"typeId\":\"map\",\"type\":{\"typeId\":\"map\","
+            + "\"keyTypeId\":\"string\",\"valueTypeId\":\"i64\"}},"
+            + "{\"key\":3,\"name\":\"tags\",\"typeId\":\"set\",\"type\":{\"typeId\":\"set\",\"elemTypeId\":\"i32\"}},"
+            + "{\"key\":4,\"name\":\"item\",\"typeId\":\"struct\",\"type\":{\"typeId\":\"struct\",\"class\":\"test.Item\"}},"
+            + "{\"key\":5,\"name\":\"price\",\"typeId\":\"double\"},"
+            + "{\"key\":6,\"name\":\"flag\",\"typeId\":\"bool\"}],"
+            + "\"exceptions\":[]}]}]}]"));
+
+    private static TMessage readCall(String json, TokenTape tape) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return new PlannedDecoder().readCall(bytes, 0, bytes.length, SCHEMA, "Store", tape);
+    }
+
+    @Test
+    public void decodesACallOntoTheTape() {
+        TokenTape tape = new TokenTape();
+        TMessage message = readCall("{\"method\":\"put\",\"id\":7,\"arguments\":{\"ids\":[1,2,3],"
+                + "\"counts\":{\"a\":1,\"b\":2},\"tags\":[\"5\",6],\"item\":{\"id\":9},\"price\":0.1,\"flag\":true}}", tape);
+
+        assertEquals(new TMessage("put", TMessageType.CALL, 7), message);
+        assertEquals("ids", tape.nextField().name);
+        assertEquals(TType.I32, tape.peekType());
+        assertEquals(3, tape.nextSize());
+        assertEquals(1, tape.nextLong());
+        assertEquals(2, tape.nextLong());
+        assertEquals(3, tape.nextLong());
+        assertEquals("counts", tape.nextField().name);
+        assertEquals(TType.STRING, tape.peekType());
+        assertEquals(TType.I64, tape.peekValueType());
+        assertEquals(2, tape.nextSize());
+        assertEquals("a", tape.nextObject());
+        assertEquals(1, tape.nextLong());
+        assertEquals("b", tape.nextObject());
+        assertEquals(2, tape.nextLong());
+        assertEquals("tags", tape.nextField().name);
+        assertEquals(2, tape.nextSize());
+        assertEquals(5, tape.nextLong());
+        assertEquals(6, tape.nextLong());
+        assertEquals("item", tape.nextField().name);
+        assertEquals("id", tape.nextField().name);
+        assertEquals(9, tape.nextLong());
+        assertEquals(TType.STOP, tape.nextField().type);
+        assertEquals("price", tape.nextField().name);
+        assertEquals(0.1, tape.nextDouble(), 0);
+        assertEquals("flag", tape.nextField().name);
+        assertEquals(1, tape.nextLong());
+        assertEquals(TType.STOP, tape.nextField().type);
+    }
+
+    @Test
+    public void leavesWhatThePlanDoesNotCoverToTheJsonPath() {
+        // A key that is not a field, a value of the wrong kind, a set written as an object,
+        // a method that is not known and a message that is not a call
+        assertNull(readCall("{\"method\":\"put\",\"arguments\":{\"other\":1}}", new TokenTape()));
+        assertNull(readCall("{\"method\":\"put\",\"arguments\":{\"ids\":\"1\"}}", new TokenTape()));
+        assertNull(readCall("{\"method\":\"put\",\"arguments\":{\"price\":null}}", new TokenTape()));
+        assertNull(readCall("{\"method\":\"put\",\"arguments\":{\"tags\":{\"1\":true}}}", new TokenTape()));
+        assertNull(readCall("{\"method\":\"get\",\"arguments\":{}}", new TokenTape()));
+        assertNull(readCall("{\"method\":\"put\",\"result\":{}}", new TokenTape()));
+        assertNull(readCall("{\"method\":\"put\",\"arguments\":{}} trailing", new TokenTape()));
+    }
+
+    @Test
+    public void readsCallsWithTheProtocolWhenNotStreaming() throws TException {
+        HumanReadableJsonProtocol.Factory factory = new HumanReadableJsonProtocol.Factory(
+                HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json"), "AuthenticationService")
+                .skipUnknownFields(true);
+
+        List<Boolean> planned = new ArrayList<>();
+        for (String arguments : new String[]{"{\"email\":\"a@b.c\",\"password\":\"p\\u0040ss\"}",
+                "{\"email\":\"a@b.c\",\"password\":\"p@ss\",\"rememberMe\":true}"}) {
+            byte[] request = ("{\"method\":\"login\",\"arguments\":" + arguments + "}").getBytes(StandardCharsets.UTF_8);
+            HumanReadableJsonProtocol protocol =
+                    (HumanReadableJsonProtocol) factory.getProtocol(new TMemoryInputTransport(request));
+            assertEquals(new TMessage("login", TMessageType.CALL, 0), protocol.readMessageBegin());
+            planned.add(protocol.planned());
+            AuthenticationService.login_args args = new AuthenticationService.login_args();
+            args.read(protocol);
+            protocol.readMessageEnd();
+            assertEquals("a@b.c", args.getEmail());
+            assertEquals("p@ss", args.getPassword());
+        }
+        // The second one has a key the plan does not cover, it went to the JSON path which counted it
+        assertEquals(Arrays.asList(true, false), planned);
+        assertEquals(1, factory.skippedFields().count("login_args", "rememberMe"));
+    }
+}
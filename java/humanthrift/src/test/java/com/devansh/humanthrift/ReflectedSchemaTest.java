@@ -0,0 +1,37 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import com.devansh.humanthrift.CompiledSchema.ServiceInfo;
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ReflectedSchemaTest {
+
+    // Like the class generated for "service ExtendedService extends AuthenticationService {}"
+    public static class ExtendedService {
+        public interface Iface extends AuthenticationService.Iface {
+        }
+    }
+
+    @Test
+    public void reflectsTheMethodsOfAService() {
+        CompiledSchema schema = ReflectedSchema.of(AuthenticationService.class);
+        MethodInfo login = schema.service("AuthenticationService").method("login");
+        assertNotNull(login);
+        assertEquals(2, login.arguments.fields.length);
+        assertEquals(LoginResult.class.getName(), login.returnType.className);
+    }
+
+    @Test
+    public void findsInheritedMethodsInTheServiceTheyComeFrom() {
+        ServiceInfo service = ReflectedSchema.of(ExtendedService.class).service("ExtendedService");
+        MethodInfo login = service.method("login");
+        assertNotNull(login);
+        assertEquals("email", login.arguments.fields[0].name);
+        assertEquals(1, login.exceptions.fields.length);
+    }
+}
@@ -0,0 +1,90 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ReloadableSchemaTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private Path file;
+    private JSONObject auth;
+
+    @Before
+    public void copyMetadata() throws IOException {
+        Path source = Paths.get("src/main/resources/thrift-json/auth.json");
+        auth = new JSONObject(new String(Files.readAllBytes(source), StandardCharsets.UTF_8));
+        file = temp.getRoot().toPath().resolve("auth.json");
+        Files.copy(source, file);
+    }
+
+    private static CompiledSchema.MethodInfo logout(CompiledSchema schema) {
+        return schema.service("AuthenticationService").method("logout");
+    }
+
+    private static void await(ReloadableSchema schema) throws InterruptedException {
+        for (int i = 0; i < 100 && logout(schema.current()) == null; i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void servesTheSchemaOfTheChangedFiles() throws IOException, InterruptedException, TException {
+        try (ReloadableSchema schema = new ReloadableSchema(temp.getRoot().toPath())) {
+            assertNull(logout(schema.current()));
+            HumanReadableJsonProtocol.Factory factory = new HumanReadableJsonProtocol.Factory(schema, "AuthenticationService");
+            // Made before the change, it picks up the new schema with the next message
+            TProtocol protocol = factory.getProtocol(new TMemoryInputTransport(
+                    "{\"method\":\"logout\",\"arguments\":{\"token\":\"t\"}}".getBytes(StandardCharsets.UTF_8)));
+
+            JSONArray functions = auth.getJSONArray("services").getJSONObject(0).getJSONArray("functions");
+            functions.put(new JSONObject("{\"name\":\"logout\",\"returnTypeId\":\"void\",\"oneway\":false,"
+                    + "\"arguments\":[{\"key\":1,\"name\":\"token\",\"typeId\":\"string\"}],\"exceptions\":[]}"));
+            Files.write(file, auth.toString().getBytes(StandardCharsets.UTF_8));
+            await(schema);
+
+            assertNotNull(logout(schema.current()));
+            assertEquals(new TMessage("logout", TMessageType.CALL, 0), protocol.readMessageBegin());
+            assertEquals("token", protocol.readFieldBegin().name);
+            assertEquals("t", protocol.readString());
+            assertEquals(TType.STOP, protocol.readFieldBegin().type);
+        }
+    }
+
+    @Test
+    public void keepsTheSchemaWhenTheFilesDoNotCompile() throws IOException, InterruptedException {
+        try (ReloadableSchema schema = new ReloadableSchema(temp.getRoot().toPath())) {
+            CompiledSchema before = schema.current();
+            Files.write(file, "{\"name\":\"auth\",\"services\":}".getBytes(StandardCharsets.UTF_8));
+            // Longer than the quiet period, so the reload has been tried
+            Thread.sleep(1000);
+
+            assertSame(before, schema.current());
+            assertFalse(schema.reload());
+            assertSame(before, schema.current());
+        }
+    }
+}
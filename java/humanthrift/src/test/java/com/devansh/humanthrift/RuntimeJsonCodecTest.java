@@ -0,0 +1,239 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.TFieldIdEnum;
+import org.apache.thrift.TFieldRequirementType;
+import org.apache.thrift.meta_data.FieldMetaData;
+import org.apache.thrift.meta_data.FieldValueMetaData;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RuntimeJsonCodecTest {
+
+    private static final String METADATA = "[{\"name\":\"test\",\"structs\":["
+            + "{\"name\":\"Node\",\"fields\":[{\"key\":1,\"name\":\"name\",\"typeId\":\"string\"},"
+            + "{\"key\":2,\"name\":\"next\",\"typeId\":\"struct\",\"type\":{\"typeId\":\"struct\",\"class\":\"test.Node\"}},"
+            + "{\"key\":3,\"name\":\"ids\",\"typeId\":\"set\",\"type\":{\"typeId\":\"set\",\"elemTypeId\":\"i32\"}},"
+            + "{\"key\":4,\"name\":\"weight\",\"typeId\":\"i32\",\"required\":\"optional\"}]},"
+            + "{\"name\":\"Blob\",\"fields\":[{\"key\":1,\"name\":\"data\",\"typeId\":\"binary\"}]},"
+            + "{\"name\":\"Choice\",\"isUnion\":true,\"fields\":[{\"key\":1,\"name\":\"name\",\"typeId\":\"string\"}]}]}]";
+
+    /**
+     * The ids of the fields of the structs below, which only need to be told apart.
+     */
+    public enum Id implements TFieldIdEnum {
+        ONE, TWO, THREE, FOUR;
+
+        @Override
+        public short getThriftFieldId() {
+            return (short) (ordinal() + 1);
+        }
+
+        @Override
+        public String getFieldName() {
+            return name();
+        }
+    }
+
+    /**
+     * The parts of a class generated by the Thrift compiler that the codec does not use.
+     */
+    public abstract static class Struct<T extends Struct<T>> implements TBase<T, Id> {
+        private static final long serialVersionUID = 1L;
+
+
+        static void register(Class<? extends Struct<?>> type, FieldMetaData... fields) {
+            Map<Id, FieldMetaData> metaData = new EnumMap<>(Id.class);
+            for (int i = 0; i < fields.length; i++) {
+                metaData.put(Id.values()[i], fields[i]);
+            }
+            FieldMetaData.addStructMetaDataMap(type, metaData);
+        }
+
+        static FieldMetaData field(String name, byte requirement, byte type) {
+            return new FieldMetaData(name, requirement, new FieldValueMetaData(type));
+        }
+
+        public void validate() throws TException {
+        }
+
+        @Override
+        public void read(TProtocol in) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(TProtocol out) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Id fieldForId(int fieldId) {
+            return Id.values()[fieldId - 1];
+        }
+
+        @Override
+        public boolean isSet(Id field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object getFieldValue(Id field) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setFieldValue(Id field, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public T deepCopy() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int compareTo(T other) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public static class Node extends Struct<Node> {
+        private static final long serialVersionUID = 1L;
+
+        static {
+            register(Node.class,
+                    field("name", TFieldRequirementType.DEFAULT, TType.STRING),
+                    field("next", TFieldRequirementType.DEFAULT, TType.STRUCT),
+                    field("ids", TFieldRequirementType.DEFAULT, TType.SET),
+                    field("weight", TFieldRequirementType.OPTIONAL, TType.I32));
+        }
+
+        public String name;
+        public Node next;
+        public Set<Integer> ids;
+        public int weight;
+        private boolean weightIsSet;
+
+        public boolean isSetWeight() {
+            return weightIsSet;
+        }
+
+        public void setWeightIsSet(boolean set) {
+            weightIsSet = set;
+        }
+    }
+
+    public static class Blob extends Struct<Blob> {
+        private static final long serialVersionUID = 1L;
+
+        static {
+            register(Blob.class, field("data", TFieldRequirementType.DEFAULT, TType.STRING));
+        }
+
+        public ByteBuffer data;
+    }
+
+    /**
+     * Like a generated union, which keeps its value in TUnion instead of a field per member.
+     */
+    public static class Choice extends Struct<Choice> {
+        private static final long serialVersionUID = 1L;
+
+        static {
+            register(Choice.class, field("name", TFieldRequirementType.DEFAULT, TType.STRING));
+        }
+    }
+
+    private static CompiledSchema schema() {
+        return CompiledSchema.compile(new JSONArray(METADATA));
+    }
+
+    private static JsonReader reader(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        JsonReader reader = new JsonReader();
+        reader.reset(bytes, 0, bytes.length);
+        return reader;
+    }
+
+    private static String write(RuntimeJsonCodec codec, TBase<?, ?> value) throws TException {
+        TMemoryBuffer buffer = new TMemoryBuffer(256);
+        TSimpleJSONProtocol out = new TSimpleJSONProtocol(buffer);
+        codec.write(value, out);
+        out.getTransport().flush();
+        return new String(buffer.getArray(), 0, buffer.length(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void makesACodecOnceTheStructIsUsedOftenEnough() {
+        StructInfo node = schema().struct("test.Node");
+        assertNull(RuntimeJsonCodec.forStruct(node, Node.class, 3));
+        assertNull(RuntimeJsonCodec.forStruct(node, Node.class, 3));
+        RuntimeJsonCodec codec = RuntimeJsonCodec.forStruct(node, Node.class, 3);
+        assertNotNull(codec);
+        assertSame(codec, RuntimeJsonCodec.forStruct(node, Node.class, 3));
+        // Not for another class
+        assertNull(RuntimeJsonCodec.forStruct(node, Blob.class, 3));
+
+        // A schema that is compiled again starts over
+        assertNull(RuntimeJsonCodec.forStruct(schema().struct("test.Node"), Node.class, 3));
+    }
+
+    @Test
+    public void readsAndWritesAStructThatContainsItself() throws TException {
+        RuntimeJsonCodec codec = RuntimeJsonCodec.forStruct(schema().struct("test.Node"), Node.class, 1);
+        String json = "{\"name\":\"a\",\"next\":{\"name\":\"b\",\"ids\":[3]},\"ids\":[1,2],\"weight\":0}";
+
+        Node node = (Node) codec.read(reader(json));
+        assertEquals("a", node.name);
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), node.ids);
+        assertEquals(0, node.weight);
+        assertEquals(true, node.isSetWeight());
+        assertEquals("b", node.next.name);
+        assertEquals(Collections.singleton(3), node.next.ids);
+        assertNull(node.next.next);
+        // The optional weight of the inner node is not set, so it is left out
+        assertEquals(false, node.next.isSetWeight());
+        assertEquals(json, write(codec, node));
+    }
+
+    @Test
+    public void readsTheMembersOfASetWrittenAsKeys() throws TException {
+        RuntimeJsonCodec codec = RuntimeJsonCodec.forStruct(schema().struct("test.Node"), Node.class, 1);
+        Node node = (Node) codec.read(reader("{\"ids\":{\"1\":true,\"2\":{}}}"));
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), node.ids);
+    }
+
+    @Test
+    public void leavesBinaryFieldsAndUnionsToTheGenericPath() {
+        CompiledSchema schema = schema();
+        assertNull(RuntimeJsonCodec.forStruct(schema.struct("test.Blob"), Blob.class, 1));
+        assertNull(RuntimeJsonCodec.forStruct(schema.struct("test.Choice"), Choice.class, 1));
+        // And they are not tried again
+        assertNull(RuntimeJsonCodec.forStruct(schema.struct("test.Blob"), Blob.class, 1));
+    }
+}
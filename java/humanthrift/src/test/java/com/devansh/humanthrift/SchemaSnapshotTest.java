@@ -0,0 +1,139 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.FieldInfo;
+import com.devansh.humanthrift.CompiledSchema.MethodInfo;
+import com.devansh.humanthrift.CompiledSchema.ServiceInfo;
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.CompiledSchema.TypeInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private Path metadata;
+    private Path snapshot;
+
+    @Before
+    public void copyMetadata() throws IOException {
+        metadata = temp.newFolder("thrift-json").toPath();
+        for (Path file : HumanReadableJsonHelpers.listFiles(Paths.get("src/main/resources/thrift-json"))) {
+            Files.copy(file, metadata.resolve(file.getFileName()));
+        }
+        snapshot = temp.getRoot().toPath().resolve("schema.snapshot");
+        SchemaSnapshot.main(new String[]{metadata.toString(), snapshot.toString()});
+    }
+
+    private static void assertSameType(TypeInfo expected, TypeInfo actual) {
+        if (expected == null) {
+            assertEquals(null, actual);
+            return;
+        }
+        assertEquals(expected.typeId, actual.typeId);
+        assertEquals(expected.ttype, actual.ttype);
+        assertEquals(expected.className, actual.className);
+        assertEquals(expected.struct == null ? null : expected.struct.name,
+                actual.struct == null ? null : actual.struct.name);
+        assertSameType(expected.keyType, actual.keyType);
+        assertSameType(expected.valueType, actual.valueType);
+        assertSameType(expected.elemType, actual.elemType);
+    }
+
+    private static void assertSameStruct(StructInfo expected, StructInfo actual) {
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.fields.length, actual.fields.length);
+        for (FieldInfo field : expected.fields) {
+            FieldInfo loaded = actual.field(field.name);
+            assertNotNull(expected.name + "." + field.name, loaded);
+            assertEquals(field.key, loaded.key);
+            assertSameType(field.type, loaded.type);
+        }
+    }
+
+    @Test
+    public void loadsTheSchemaItWasWrittenFrom() throws IOException {
+        CompiledSchema compiled = CompiledSchema.compile(HumanReadableJsonHelpers.readAllFiles(metadata.toString()));
+        CompiledSchema loaded = SchemaSnapshot.load(snapshot, metadata);
+
+        assertEquals(compiled.structs().keySet(), loaded.structs().keySet());
+        for (StructInfo struct : compiled.structs().values()) {
+            assertSameStruct(struct, loaded.struct(struct.name));
+        }
+        assertEquals(compiled.services().keySet(), loaded.services().keySet());
+        for (ServiceInfo service : compiled.services().values()) {
+            ServiceInfo loadedService = loaded.service(service.name);
+            assertEquals(service.methods.keySet(), loadedService.methods.keySet());
+            for (MethodInfo method : service.methods.values()) {
+                MethodInfo loadedMethod = loadedService.method(method.name);
+                assertEquals(method.oneway, loadedMethod.oneway);
+                assertSameType(method.returnType, loadedMethod.returnType);
+                assertSameStruct(method.arguments, loadedMethod.arguments);
+                assertSameStruct(method.exceptions, loadedMethod.exceptions);
+                assertSameStruct(method.result, loadedMethod.result);
+            }
+        }
+    }
+
+    @Test
+    public void ignoresWhatIsNotAMetadataFile() throws IOException {
+        long checksum = SchemaSnapshot.checksum(metadata);
+        Files.createDirectories(metadata.resolve("old").resolve("nested"));
+
+        assertEquals(checksum, SchemaSnapshot.checksum(metadata));
+        SchemaSnapshot.load(snapshot, metadata);
+    }
+
+    @Test
+    public void rejectsAStaleSnapshot() throws IOException {
+        Path file = HumanReadableJsonHelpers.listFiles(metadata).get(0);
+        Files.write(file, new byte[]{' '}, StandardOpenOption.APPEND);
+        assertRejected("stale", () -> SchemaSnapshot.load(snapshot, metadata));
+
+        // Not checking it against the metadata still loads it
+        assertNotNull(SchemaSnapshot.load(snapshot));
+    }
+
+    @Test
+    public void rejectsACorruptSnapshot() throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(snapshot, bytes);
+        assertRejected("corrupted", () -> SchemaSnapshot.load(snapshot));
+
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 1));
+        assertRejected("truncated", () -> SchemaSnapshot.load(snapshot));
+
+        Files.write(snapshot, "{\"name\":\"auth\"}".getBytes(StandardCharsets.UTF_8));
+        assertRejected("not a schema snapshot", () -> SchemaSnapshot.load(snapshot));
+    }
+
+    private interface Load {
+        CompiledSchema run() throws IOException;
+    }
+
+    private static void assertRejected(String reason, Load load) {
+        try {
+            load.run();
+            fail("Loaded a snapshot that is " + reason);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+}
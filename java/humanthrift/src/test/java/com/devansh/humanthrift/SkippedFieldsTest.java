@@ -0,0 +1,37 @@
+package com.devansh.humanthrift;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SkippedFieldsTest {
+
+    @Test
+    public void countsAStructUnderOneNameWhateverSkippedIt() {
+        SkippedFields skipped = new SkippedFields();
+        skipped.add("auth.User", "nickname");
+        skipped.add("com.devansh.humanthrift.generated.User", "nickname");
+        skipped.add("User", "nickname");
+        skipped.add("login_args", "rememberMe");
+
+        assertEquals(3, skipped.count("User", "nickname"));
+        assertEquals(3, skipped.count("auth.User", "nickname"));
+        assertEquals(1, skipped.count("login_args", "rememberMe"));
+        assertEquals(2, skipped.snapshot().size());
+    }
+
+    @Test
+    public void countsTheKeysPastTheLimitTogether() {
+        SkippedFields skipped = new SkippedFields(2);
+        for (int i = 0; i < 1000; i++) {
+            skipped.add("login_args", "key" + i);
+        }
+        skipped.add("login_args", "key0");
+
+        assertEquals(2, skipped.count("login_args", "key0"));
+        assertEquals(1, skipped.count("login_args", "key1"));
+        assertEquals(0, skipped.count("login_args", "key2"));
+        assertEquals(998, skipped.count("login_args", SkippedFields.OTHER_FIELDS));
+        assertEquals(3, skipped.snapshot().size());
+    }
+}
@@ -0,0 +1,95 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingJsonDecoderTest {
+
+    private static final HumanReadableJsonProtocol.Factory FACTORY = new HumanReadableJsonProtocol.Factory(
+            new JSONArray("[{\"name\":\"test\",\"structs\":["
+                    + "{\"name\":\"Item\",\"fields\":[{\"key\":1,\"name\":\"id\",\"typeId\":\"i32\"}]},"
+                    + "{\"name\":\"Order\",\"fields\":["
+                    + "{\"key\":1,\"name\":\"grid\",\"typeId\":\"list\",\"type\":{\"typeId\":\"list\",\"elemTypeId\":\"list\","
+                    + "\"elemType\":{\"typeId\":\"list\",\"elemTypeId\":\"i32\"}}},"
+                    + "{\"key\":2,\"name\":\"groups\",\"typeId\":\"map\",\"type\":{\"typeId\":\"map\",\"keyTypeId\":\"string\","
+                    + "\"valueTypeId\":\"list\",\"valueType\":{\"typeId\":\"list\",\"elemTypeId\":\"struct\","
+                    + "\"elemType\":{\"typeId\":\"struct\",\"class\":\"test.Item\"}}}},"
+                    + "{\"key\":3,\"name\":\"tags\",\"typeId\":\"set\",\"type\":{\"typeId\":\"set\",\"elemTypeId\":\"i32\"}}"
+                    + "]}],\"services\":[]}]"), null)
+            .streaming(true)
+            .skipUnknownFields(true);
+
+    private static TProtocol protocol(String json) {
+        return FACTORY.getStructProtocol(new TMemoryInputTransport(json.getBytes(StandardCharsets.UTF_8)), "test.Order");
+    }
+
+    private static void assertItem(TProtocol in, int id) throws TException {
+        in.readStructBegin();
+        assertEquals("id", in.readFieldBegin().name);
+        assertEquals(id, in.readI32());
+        in.readFieldEnd();
+        assertEquals(TType.STOP, in.readFieldBegin().type);
+        in.readStructEnd();
+    }
+
+    @Test
+    public void readsTheSizesOfNestedContainers() throws TException {
+        TProtocol in = protocol("{\"other\": [[0], {\"x\": [1, 2]}],"
+                + " \"grid\": [[1, 2, 3], [], [4]],"
+                + " \"groups\": {\"a\": [{\"id\": 1}, {\"id\": 2}], \"b\": []},"
+                + " \"tags\": {\"7\": true, \"8\": true}}");
+        in.readStructBegin();
+
+        assertEquals("grid", in.readFieldBegin().name);
+        TList grid = in.readListBegin();
+        assertEquals(3, grid.size);
+        int[][] rows = {{1, 2, 3}, {}, {4}};
+        for (int[] row : rows) {
+            TList list = in.readListBegin();
+            assertEquals(TType.I32, list.elemType);
+            assertEquals(row.length, list.size);
+            for (int value : row) {
+                assertEquals(value, in.readI32());
+            }
+            in.readListEnd();
+        }
+        in.readListEnd();
+        in.readFieldEnd();
+
+        assertEquals("groups", in.readFieldBegin().name);
+        TMap groups = in.readMapBegin();
+        assertEquals(2, groups.size);
+        assertEquals("a", in.readString());
+        assertEquals(2, in.readListBegin().size);
+        assertItem(in, 1);
+        assertItem(in, 2);
+        in.readListEnd();
+        assertEquals("b", in.readString());
+        assertEquals(0, in.readListBegin().size);
+        in.readListEnd();
+        in.readMapEnd();
+        in.readFieldEnd();
+
+        assertEquals("tags", in.readFieldBegin().name);
+        TSet tags = in.readSetBegin();
+        assertEquals(2, tags.size);
+        assertEquals(7, in.readI32());
+        assertEquals(8, in.readI32());
+        in.readSetEnd();
+        in.readFieldEnd();
+
+        assertEquals(TType.STOP, in.readFieldBegin().type);
+        in.readStructEnd();
+    }
+}
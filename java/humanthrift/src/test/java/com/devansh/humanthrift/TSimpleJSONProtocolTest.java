@@ -0,0 +1,143 @@
+package com.devansh.humanthrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TSimpleJSONProtocolTest {
+
+    private static String written(TMemoryBuffer transport) {
+        return new String(transport.getArray(), 0, transport.length(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void dropsAMessageThatFailedHalfWay() throws TException {
+        TMemoryBuffer transport = new TMemoryBuffer(64);
+        TSimpleJSONProtocol protocol = new TSimpleJSONProtocol(transport, TSimpleJSONProtocol.DEFAULT_HIGH_WATER_MARK, 2);
+
+        protocol.writeMessageBegin(new TMessage("first", TMessageType.REPLY, 1));
+        protocol.writeListBegin(new TList(TType.LIST, 1));
+        try {
+            protocol.writeListBegin(new TList(TType.I32, 1));
+            fail();
+        } catch (TProtocolException e) {
+            assertEquals(TProtocolException.DEPTH_LIMIT, e.getType());
+        }
+
+        protocol.writeMessageBegin(new TMessage("second", TMessageType.REPLY, 2));
+        protocol.writeMessageEnd();
+        assertEquals("[\"second\",2,2]", written(transport));
+    }
+
+    private static String writeDouble(double value) throws TException {
+        TMemoryBuffer transport = new TMemoryBuffer(32);
+        new TSimpleJSONProtocol(transport).writeDouble(value);
+        return written(transport);
+    }
+
+    /**
+     * What Double.toString writes since Java 19: the fewest digits that read back as the value,
+     * but at least two, without an exponent from 10^-3 up to 10^7. Before that it sometimes wrote a digit more, like
+     * 9.999999999999999E22 for 1e23.
+     */
+    private static String shortest(double value) {
+        if (value == 0) {
+            return Double.toString(value);
+        }
+        BigDecimal exact = new BigDecimal(value);
+        BigDecimal digits = exact;
+        for (int n = 2; n <= 17; n++) {
+            digits = exact.round(new MathContext(n, RoundingMode.HALF_EVEN));
+            if (digits.doubleValue() == value) {
+                break;
+            }
+        }
+        digits = digits.stripTrailingZeros();
+        double abs = Math.abs(value);
+        if (abs >= 1e-3 && abs < 1e7) {
+            String plain = digits.toPlainString();
+            return plain.indexOf('.') < 0 ? plain + ".0" : plain;
+        }
+        String unscaled = digits.unscaledValue().abs().toString();
+        return (value < 0 ? "-" : "") + unscaled.charAt(0) + "."
+                + (unscaled.length() > 1 ? unscaled.substring(1) : "0") + "E" + (unscaled.length() - 1 - digits.scale());
+    }
+
+    private static void assertWrittenLikeToString(double value) throws TException {
+        String written = writeDouble(value);
+        assertEquals(shortest(value), written);
+        assertEquals(Double.doubleToRawLongBits(value), Double.doubleToRawLongBits(Double.parseDouble(written)));
+    }
+
+    @Test
+    public void writesDoublesLikeToString() throws TException {
+        double[] values = {
+                0.0, -0.0, 0.1, -0.1, 0.2, 0.3, 0.1 + 0.2, 1.0, 1.5, 100.25, 123456.789, 9999999.99999999,
+                0.001, 0.00099999, 1e-4, 9999999.0, 1e7, 1e22, 1e23, 3.141592653589793,
+                9007199254740991.0, 9007199254740992.0, 9007199254740993.0,
+                Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE,
+                Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (double value : values) {
+            assertWrittenLikeToString(value);
+        }
+    }
+
+    @Test
+    public void writesDoublesWithFewDecimalsLikeToString() throws TException {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // Prices, percentages and the like, which take the plain path
+            double value = random.nextInt(1000000000) / Math.pow(10, random.nextInt(9));
+            assertWrittenLikeToString(random.nextBoolean() ? value : -value);
+        }
+    }
+
+    @Test
+    public void writesDoublesWithAnExponentLikeToString() throws TException {
+        double[] values = {1e7, 1.5e7, 12345678.9, 1e-4, 2.5e-5, 1.234e-10, 6.02214076e23, 1e22, 9.999e21, 1.7e-16};
+        for (double value : values) {
+            assertWrittenLikeToString(value);
+            assertWrittenLikeToString(-value);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // A few digits with an exponent, which take the exponent path
+            double value = Double.parseDouble(random.nextInt(100000) + "e" + (random.nextInt(40) - 20));
+            if (value != 0) {
+                assertWrittenLikeToString(value);
+            }
+        }
+    }
+
+    @Test
+    public void writesAnyDoubleSoItReadsBackTheSame() throws TException {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            String written = writeDouble(value);
+            assertEquals(written, Double.doubleToRawLongBits(value), Double.doubleToRawLongBits(Double.parseDouble(written)));
+        }
+        for (int i = 0; i < 100000; i++) {
+            double value = random.nextDouble() * 1e7;
+            String written = writeDouble(value);
+            assertEquals(written, value, Double.parseDouble(written), 0);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.devansh.humanthrift;
+
+import com.devansh.humanthrift.CompiledSchema.StructInfo;
+import com.devansh.humanthrift.generated.AuthenticationService;
+import com.devansh.humanthrift.generated.LoginResult;
+import com.devansh.humanthrift.generated.User;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WriteStackTest {
+
+    private static final CompiledSchema SCHEMA = CompiledSchema.compile(new JSONArray("[{\"name\":\"test\",\"structs\":["
+            + "{\"name\":\"Item\",\"fields\":[{\"key\":1,\"name\":\"id\",\"typeId\":\"i32\"}]},"
+            + "{\"name\":\"Tag\",\"fields\":[{\"key\":1,\"name\":\"label\",\"typeId\":\"string\"}]},"
+            + "{\"name\":\"Order\",\"fields\":["
+            + "{\"key\":2,\"name\":\"groups\",\"typeId\":\"map\",\"type\":{\"typeId\":\"map\",\"keyTypeId\":\"string\","
+            + "\"valueTypeId\":\"list\",\"valueType\":{\"typeId\":\"list\",\"elemTypeId\":\"struct\","
+            + "\"elemType\":{\"typeId\":\"struct\",\"class\":\"test.Item\"}}}},"
+            + "{\"key\":3,\"name\":\"tags\",\"typeId\":\"map\",\"type\":{\"typeId\":\"map\","
+            + "\"keyTypeId\":\"struct\",\"keyType\":{\"typeId\":\"struct\",\"class\":\"test.Item\"},"
+            + "\"valueTypeId\":\"struct\",\"valueType\":{\"typeId\":\"struct\",\"class\":\"test.Tag\"}}},"
+            + "{\"key\":300,\"name\":\"note\",\"typeId\":\"string\"}"
+            + "]}],\"services\":[]}]"));
+
+    private static final StructInfo ORDER = SCHEMA.struct("test.Order");
+    private static final StructInfo ITEM = SCHEMA.struct("test.Item");
+    private static final StructInfo TAG = SCHEMA.struct("test.Tag");
+
+    @Test
+    public void findsTheFieldsOfNestedStructsById() {
+        WriteStack writes = new WriteStack();
+        writes.reset(ORDER);
+        writes.pushStruct();
+        assertSame(ORDER.field("note"), writes.field(new TField("note", TType.STRING, (short) 300)));
+
+        assertSame(ORDER.field("groups"), writes.field(new TField("groups", TType.MAP, (short) 2)));
+        writes.pushContainer();
+        // The keys are strings, so the list is a value
+        writes.pushContainer();
+        writes.pushStruct();
+        assertSame(ITEM.field("id"), writes.field(new TField("id", TType.I32, (short) 1)));
+        writes.pop();
+        writes.pop();
+        writes.pop();
+
+        // With structs for keys and values they take turns
+        assertSame(ORDER.field("tags"), writes.field(new TField("tags", TType.MAP, (short) 3)));
+        writes.pushContainer();
+        for (int i = 0; i < 2; i++) {
+            writes.pushStruct();
+            assertSame(ITEM.field("id"), writes.field(new TField("id", TType.I32, (short) 1)));
+            writes.pop();
+            writes.pushStruct();
+            assertSame(TAG.field("label"), writes.field(new TField("label", TType.STRING, (short) 1)));
+            writes.pop();
+        }
+        writes.pop();
+    }
+
+    @Test
+    public void knowsNothingOfWhatTheSchemaDoesNotDescribe() {
+        WriteStack writes = new WriteStack();
+        writes.reset(ORDER);
+        writes.pushStruct();
+        // Another name for the id is another schema
+        assertNull(writes.field(new TField("other", TType.MAP, (short) 2)));
+        writes.pushContainer();
+        writes.pushStruct();
+        assertNull(writes.field(new TField("id", TType.I32, (short) 1)));
+
+        writes.reset(null);
+        writes.pushStruct();
+        assertNull(writes.field(new TField("note", TType.STRING, (short) 300)));
+    }
+
+    @Test
+    public void writesTheKeysOfAReply() throws TException {
+        HumanReadableJsonProtocol.Factory factory = new HumanReadableJsonProtocol.Factory(
+                HumanReadableJsonHelpers.readAllFiles("src/main/resources/thrift-json"), "AuthenticationService");
+        TMemoryBuffer buffer = new TMemoryBuffer(256);
+        TProtocol out = factory.getProtocol(buffer);
+        out.writeMessageBegin(new TMessage("login", TMessageType.REPLY, 1));
+        new AuthenticationService.login_result().setSuccess(new LoginResult().setAuthToken("t")
+                .setCurrentUser(new User().setId("1").setEmail("a@b.c").setName("A").setValidatedAt(2))).write(out);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+
+        JSONObject reply = new JSONObject(new String(buffer.getArray(), 0, buffer.length(), StandardCharsets.UTF_8));
+        JSONObject success = reply.getJSONObject("result").getJSONObject("success");
+        assertEquals("t", success.getString("authToken"));
+        assertEquals("a@b.c", success.getJSONObject("currentUser").getString("email"));
+        assertEquals(2, success.getJSONObject("currentUser").getLong("validatedAt"));
+    }
+}